@@ -0,0 +1,56 @@
+package eif;
+
+import java.util.Random;
+
+/**
+ * The datasets the benchmarks run on: the four bundled with the project, read from the
+ * directory in the eif.data system property (the project root by default), and synthetic
+ * ones named synthetic-<rows>.
+ */
+final class BenchmarkData {
+    static final String DATA_DIRECTORY = System.getProperty("eif.data", "..");
+
+    //dimensions of the synthetic datasets
+    private static final int SYNTHETIC_DIMENSIONS = 10;
+    //share of the synthetic rows that are outliers
+    private static final double SYNTHETIC_OUTLIERS = .01;
+
+    private BenchmarkData() {
+    }
+
+    static Pair<double[][], int[]> load(String name) {
+        switch (name) {
+        case "cardio":
+            return Utility.loadCardio(path("cardio.csv"));
+        case "ionosphere":
+            return Utility.loadIonosphere(path("ionosphere.data"));
+        case "mammography":
+            return Utility.loadMammography(path("mammography.csv"));
+        case "satellite":
+            return Utility.loadSatellite(path("sat.all"));
+        default:
+            if (name.startsWith("synthetic-")) {
+                return synthetic(Integer.parseInt(name.substring("synthetic-".length())));
+            }
+            throw new IllegalArgumentException("Unknown benchmark dataset " + name + ".");
+        }
+    }
+
+    static String path(String file) {
+        return DATA_DIRECTORY + "/" + file;
+    }
+
+    //a gaussian cluster with uniformly scattered outliers around it, the same every time
+    static Pair<double[][], int[]> synthetic(int rows) {
+        Random random = new Random(42);
+        double[][] data = new double[rows][SYNTHETIC_DIMENSIONS];
+        int[] labels = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            labels[i] = random.nextDouble() < SYNTHETIC_OUTLIERS ? 1 : 0;
+            for (int j = 0; j < SYNTHETIC_DIMENSIONS; j++) {
+                data[i][j] = labels[i] == 1 ? random.nextDouble() * 12 - 6 : random.nextGaussian();
+            }
+        }
+        return new Pair<double[][], int[]>(data, labels);
+    }
+}
@@ -0,0 +1,40 @@
+package eif;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole EIF_LOF.getOutliers pipeline. It only runs on satellite: its threshold needs
+ * at least 15 dimensions and its result size is fixed at 2036 points.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EifLofBenchmark {
+    private Pair<double[][], int[]> satellite;
+
+    @Setup
+    public void setup() {
+        satellite = BenchmarkData.load("satellite");
+    }
+
+    @Benchmark
+    public int[] getOutliers() {
+        try (EIF_LOF eifLof = new EIF_LOF(satellite.l, satellite.r)) {
+            return eifLof.getOutliers();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package eif;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fitting a 100 tree forest and scoring a whole dataset with it, on one thread so the
+ * numbers do not depend on the machine's core count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ForestBenchmark {
+    private static final int TREE_COUNT = 100;
+    private static final int SAMPLE_SIZE = 256;
+
+    @Param({"cardio", "ionosphere", "mammography", "satellite", "synthetic-100000"})
+    public String dataset;
+
+    @Param({"false", "true"})
+    public boolean splitOnProximity;
+
+    private Dataset data;
+    private ExtendedIsolationForest forest;
+    private IsolationForestModel model;
+    private double[] scores;
+
+    @Setup
+    public void setup() {
+        data = new ArrayDataset(BenchmarkData.load(dataset).l);
+        forest = newForest();
+        model = forest.fit();
+        scores = new double[data.size()];
+    }
+
+    private ExtendedIsolationForest newForest() {
+        ExtendedIsolationForest forest = new ExtendedIsolationForest(data, TREE_COUNT,
+                Math.min(SAMPLE_SIZE, data.size()), splitOnProximity);
+        forest.setSeed(42);
+        forest.setParallelism(1);
+        return forest;
+    }
+
+    //builds every tree and scores the dataset
+    @Benchmark
+    public IsolationForestModel fit() {
+        return newForest().fit();
+    }
+
+    //what calculateAnomalyScores does for each block of points
+    @Benchmark
+    public double[] scoreDataset() {
+        model.scoreBatch(data, 0, data.size(), scores);
+        return scores;
+    }
+
+    //the selection behind getOutliers(int), without boxing the indices into a List
+    @Benchmark
+    public Pair<int[], double[]> topOutliers() {
+        return forest.getTopOutliers(data.size() / 10);
+    }
+}
@@ -0,0 +1,59 @@
+package eif;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The LOF stage: building a neighbor index and scoring the top tenth of the points by
+ * isolation score with LocalOutlierFactor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LofBenchmark {
+    private static final int K = 15;
+
+    @Param({"cardio", "ionosphere", "mammography", "satellite", "synthetic-100000"})
+    public String dataset;
+
+    private Dataset data;
+    private NeighborIndex index;
+    private int[] candidates;
+
+    @Setup
+    public void setup() {
+        data = new ArrayDataset(BenchmarkData.load(dataset).l);
+        index = NeighborIndex.build(data);
+        try (ExtendedIsolationForest forest = new ExtendedIsolationForest(data, 100,
+                Math.min(256, data.size()), false)) {
+            forest.setSeed(42);
+            candidates = forest.getTopOutliers(data.size() / 10).l;
+        }
+    }
+
+    @Benchmark
+    public NeighborIndex buildIndex() {
+        return NeighborIndex.build(data);
+    }
+
+    //a fresh engine every time, since it keeps what it computed
+    @Benchmark
+    public double[] localOutlierFactor() {
+        return new LocalOutlierFactor(index, data.size(), K).score(candidates);
+    }
+
+}
@@ -0,0 +1,56 @@
+package eif;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building one IsolationTree from a sample of 256 points, in both split modes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBuildBenchmark {
+    private static final int SAMPLE_SIZE = 256;
+
+    @Param({"cardio", "ionosphere", "mammography", "satellite", "synthetic-100000"})
+    public String dataset;
+
+    @Param({"false", "true"})
+    public boolean splitOnProximity;
+
+    private Dataset data;
+    private int[] sample;
+    private int heightLimit;
+
+    @Setup
+    public void setup() {
+        data = new ArrayDataset(BenchmarkData.load(dataset).l);
+        int sampleSize = Math.min(SAMPLE_SIZE, data.size());
+        heightLimit = (int) Math.ceil(Math.log10(sampleSize)/Math.log10(2));
+        //every step through the dataset, so the sample covers all of it
+        sample = new int[sampleSize];
+        for (int i = 0; i < sampleSize; i++) {
+            sample[i] = (int) ((long) i * data.size() / sampleSize);
+        }
+    }
+
+    @Benchmark
+    public IsolationTree build() {
+        return new IsolationTree(data, sample, heightLimit, splitOnProximity,
+                data.dimensions() - 1, new Sampler(42));
+    }
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+
+/**
+ * Answers threshold and top-n questions about a dataset without running every point
+ * through every tree.
+ *
+ * Points go through the forest a round of trees at a time. After each round, the
+ * StoppingRule bounds the path length sum each point can still end up with, and points
+ * whose side of the cutoff is settled are dropped: for a threshold, points certain to
+ * score above or below it; for top-n, points that cannot beat the n-th best upper bound.
+ * Clear inliers usually settle after a few rounds, so most of the forest is only walked
+ * for the points near the cutoff.
+ *
+ * Scorers are cheap to create and not safe for concurrent use.
+ */
+public class AdaptiveScorer {
+    //bounds must clear the cutoff by this much of the sum, so rounding in the order the
+    //sums are added in can never flip a decision
+    private static final double MARGIN = 1e-9;
+
+    private final IsolationForestModel model;
+    private final IsolationTree[] trees;
+    private final StoppingRule rule;
+    private int roundSize = 8;
+    //sums of the shortest and longest leaves of trees [j, treeCount)
+    private final double[] remainingMin;
+    private final double[] remainingMax;
+    //path lengths computed, to compare with size * treeCount for full scoring
+    private long treeEvaluations;
+
+    public AdaptiveScorer(IsolationForestModel model, StoppingRule rule) {
+        this.model = model;
+        this.trees = model.getTrees();
+        this.rule = rule;
+        remainingMin = new double[trees.length + 1];
+        remainingMax = new double[trees.length + 1];
+        for (int j = trees.length - 1; j >= 0; j--) {
+            remainingMin[j] = remainingMin[j + 1] + trees[j].getMinPathLength();
+            remainingMax[j] = remainingMax[j + 1] + trees[j].getMaxPathLength();
+        }
+    }
+
+    //trees each point goes through between two checks of the bounds
+    public void setRoundSize(int roundSize) {
+        if (roundSize < 1) {
+            throw new IllegalArgumentException("Round size must be at least 1.");
+        }
+        this.roundSize = roundSize;
+    }
+
+    public long getTreeEvaluations() {
+        return treeEvaluations;
+    }
+
+    /**
+     * Sets above[i] for the rows i in [from, to) whose score is higher than threshold and
+     * clears it for the others. With StoppingRule.EXACT the answer is always the one full
+     * scoring gives.
+     */
+    public void above(Dataset data, int from, int to, double threshold, boolean[] above) {
+        checkDimensions(data);
+        //score > threshold exactly when the path length sum is below this
+        double cutoff = -(Math.log(threshold) / Math.log(2)) * model.getAvgPathLength() * trees.length;
+        if (!(threshold > 0) || Double.isNaN(cutoff)) {
+            //every score is positive, or the scores cannot be bounded
+            for (int i = from; i < to; i++) {
+                above[i] = threshold <= 0 || model.pathLengthSumToScore(fullSum(data, i)) > threshold;
+            }
+            return;
+        }
+        double margin = MARGIN * Math.max(1, Math.abs(cutoff));
+
+        int[] active = new int[to - from];
+        for (int i = 0; i < active.length; i++) {
+            active[i] = from + i;
+        }
+        //running sums of the rows, indexed from from
+        double[] sums = new double[to - from];
+        double[] squares = new double[to - from];
+        int activeCount = active.length;
+        for (int done = 0; done < trees.length && activeCount > 0;) {
+            int end = Math.min(trees.length, done + roundSize);
+            int kept = 0;
+            for (int a = 0; a < activeCount; a++) {
+                int row = active[a];
+                int slot = row - from;
+                walk(data, row, slot, done, end, sums, squares);
+                if (end == trees.length) {
+                    //scored by every tree: decide exactly as full scoring does
+                    above[row] = model.pathLengthSumToScore(sums[slot]) > threshold;
+                } else if (upper(slot, end, sums, squares) < cutoff - margin) {
+                    above[row] = true;
+                } else if (lower(slot, end, sums, squares) > cutoff + margin) {
+                    above[row] = false;
+                } else {
+                    active[kept++] = row;
+                }
+            }
+            activeCount = kept;
+            done = end;
+        }
+    }
+
+    /**
+     * The n rows of the dataset with the highest scores and their scores, highest first,
+     * ordered like TopN.select. With StoppingRule.EXACT they are the same rows and scores
+     * full scoring gives.
+     */
+    public Pair<int[], double[]> top(Dataset data, int n) {
+        checkDimensions(data);
+        int size = data.size();
+        n = Math.min(n, size);
+        if (n == 0) {
+            return new Pair<int[], double[]>(new int[0], new double[0]);
+        }
+        int[] active = new int[size];
+        for (int i = 0; i < size; i++) {
+            active[i] = i;
+        }
+        double[] sums = new double[size];
+        double[] squares = new double[size];
+        double[] negatedUppers = new double[size];
+        int activeCount = size;
+        for (int done = 0; done < trees.length;) {
+            int end = Math.min(trees.length, done + roundSize);
+            for (int a = 0; a < activeCount; a++) {
+                walk(data, active[a], active[a], done, end, sums, squares);
+            }
+            done = end;
+            if (done == trees.length || activeCount == n) {
+                continue;
+            }
+            //a row is out once even its shortest possible sum is longer than the n-th
+            //shortest longest possible sum
+            for (int a = 0; a < activeCount; a++) {
+                negatedUppers[a] = -upper(active[a], done, sums, squares);
+            }
+            double[] best = TopN.select(Arrays.copyOf(negatedUppers, activeCount), n).r;
+            double cutoff = -best[n - 1];
+            double margin = MARGIN * Math.max(1, Math.abs(cutoff));
+            int kept = 0;
+            for (int a = 0; a < activeCount; a++) {
+                if (lower(active[a], done, sums, squares) <= cutoff + margin) {
+                    active[kept++] = active[a];
+                }
+            }
+            //every row among the n best upper bounds has a lower bound at most the cutoff,
+            //unless the rule put a lower bound above its upper bound
+            if (kept < n) {
+                throw new IllegalStateException("Stopping rule gave a lower bound above its upper bound.");
+            }
+            activeCount = kept;
+        }
+
+        //the rows left were scored by every tree. they stay in index order, so ties are
+        //broken the same way as over the whole dataset
+        double[] scores = new double[activeCount];
+        for (int a = 0; a < activeCount; a++) {
+            scores[a] = model.pathLengthSumToScore(sums[active[a]]);
+        }
+        Pair<int[], double[]> top = TopN.select(scores, n);
+        for (int i = 0; i < top.l.length; i++) {
+            top.l[i] = active[top.l[i]];
+        }
+        return top;
+    }
+
+    //runs the row through trees [from, to), in tree order like full scoring, adding to
+    //its running sums at slot
+    private void walk(Dataset data, int row, int slot, int from, int to, double[] sums,
+            double[] squares) {
+        double sum = sums[slot];
+        double square = squares[slot];
+        for (int j = from; j < to; j++) {
+            double pathLength = trees[j].getPathLength(data, row);
+            sum += pathLength;
+            square += pathLength * pathLength;
+        }
+        sums[slot] = sum;
+        squares[slot] = square;
+        treeEvaluations += to - from;
+    }
+
+    private double fullSum(Dataset data, int row) {
+        double sum = 0;
+        for (int j = 0; j < trees.length; j++) {
+            sum += trees[j].getPathLength(data, row);
+        }
+        treeEvaluations += trees.length;
+        return sum;
+    }
+
+    private double lower(int slot, int done, double[] sums, double[] squares) {
+        return rule.lowerBound(sums[slot], squares[slot], done, trees.length,
+                remainingMin[done], remainingMax[done]);
+    }
+
+    private double upper(int slot, int done, double[] sums, double[] squares) {
+        return rule.upperBound(sums[slot], squares[slot], done, trees.length,
+                remainingMin[done], remainingMax[done]);
+    }
+
+    private void checkDimensions(Dataset data) {
+        if (data.dimensions() != model.getDimensions()) {
+            throw new IllegalArgumentException("Model expects " + model.getDimensions()
+                    + " dimensions but the dataset has " + data.dimensions() + ".");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * A Dataset over an existing double[][], one array per row. The arrays are used as they
+ * are, not copied.
+ */
+public class ArrayDataset implements Dataset {
+    private final double[][] data;
+    private final int dimensions;
+
+    public ArrayDataset(double[][] data) {
+        if (data.length == 0) {
+            throw new IllegalArgumentException("Dataset must have at least one row.");
+        }
+        this.data = data;
+        this.dimensions = data[0].length;
+    }
+
+    @Override
+    public int size() {
+        return data.length;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public double get(int row, int column) {
+        return data[row][column];
+    }
+
+    @Override
+    public void copyRow(int row, double[] buffer) {
+        System.arraycopy(data[row], 0, buffer, 0, dimensions);
+    }
+
+    @Override
+    public double dot(int row, double[] coefficients, int[] columns, int offset, int count) {
+        return DotKernel.PREFERRED.dot(data[row], coefficients, columns, offset, count);
+    }
+
+    @Override
+    public void dots(int[] rows, int from, int to, double[] coefficients, int[] columns,
+            int offset, int count, double[] out) {
+        DotKernel.PREFERRED.dots(data, rows, from, to, coefficients, columns, offset, count, out);
+    }
+
+    @Override
+    public double squaredDistance(int row, double[] x) {
+        double[] y = data[row];
+        double distance = 0;
+        for (int i = 0; i < dimensions; i++) {
+            double difference = y[i] - x[i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Exact k-nearest-neighbour queries by scanning every row. Needs no build step and no
+ * memory beyond the dataset, and is the right choice in high dimensions, where spatial
+ * trees have to visit nearly every point anyway. Batches of queries go through the
+ * tiled, multi-threaded DistanceKernel.
+ */
+public class BruteForceKnn implements NeighborIndex {
+    private final Dataset dataset;
+    private final DistanceKernel kernel;
+
+    public BruteForceKnn(Dataset dataset) {
+        this.dataset = dataset;
+        this.kernel = new DistanceKernel(dataset);
+    }
+
+    //number of threads used for batch queries
+    public void setParallelism(int parallelism) {
+        kernel.setParallelism(parallelism);
+    }
+
+    @Override
+    public Pair<int[], double[]> nearest(int row, int k) {
+        double[] point = new double[dataset.dimensions()];
+        dataset.copyRow(row, point);
+        NeighborHeap heap = new NeighborHeap(k);
+        for (int i = 0; i < dataset.size(); i++) {
+            //dont count yourself
+            if (i == row) continue;
+            heap.offer(i, dataset.squaredDistance(i, point));
+        }
+        return heap.drain();
+    }
+
+    @Override
+    public Pair<int[], double[]> nearest(int[] rows, int k) {
+        return kernel.nearest(rows, k);
+    }
+}
@@ -0,0 +1,537 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Loads delimited numeric datasets described by a Schema.
+ *
+ * The file is memory mapped in chunks that end on line boundaries, the chunks are parsed
+ * in parallel straight from the mapped bytes, and the rows are stitched back together in
+ * file order. Row counts are discovered while parsing, so nothing has to be hard coded.
+ */
+public class DataLoader {
+    //target bytes per parsed chunk. mappings are also capped at this size
+    private static final long CHUNK_SIZE = 1 << 24;
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Describes the layout of a file and how to turn it into features and labels:
+     * which lines to skip, how fields are separated, which columns are features, which
+     * column holds the label, which labels mark outliers and which rows to keep at all.
+     */
+    public static class Schema {
+        private int skipLines;
+        //when whitespace is set, fields are separated by runs of spaces and tabs instead
+        private byte delimiter;
+        private boolean whitespace = true;
+        private int[] featureColumns = new int[0];
+        private double divisor = 1;
+        private int labelColumn = -1;
+        private byte[][] outlierLabels = new byte[0][];
+        //null keeps every row
+        private byte[][] keptLabels;
+
+        //number of lines at the top of the file to ignore, such as headers
+        public Schema skipLines(int lines) {
+            this.skipLines = lines;
+            return this;
+        }
+
+        //fields are separated by this character. consecutive ones mean empty fields
+        public Schema delimiter(char delimiter) {
+            this.delimiter = (byte) delimiter;
+            this.whitespace = false;
+            return this;
+        }
+
+        //fields are separated by any run of spaces or tabs (the default)
+        public Schema whitespace() {
+            this.whitespace = true;
+            return this;
+        }
+
+        //columns [from, to) are features, in order
+        public Schema featureRange(int from, int to) {
+            featureColumns = IntStream.range(from, to).toArray();
+            return this;
+        }
+
+        //the given columns are features, in the given order
+        public Schema features(int... columns) {
+            featureColumns = columns.clone();
+            return this;
+        }
+
+        //every feature value is divided by this, e.g. 255 for byte valued pixels
+        public Schema divideBy(double divisor) {
+            this.divisor = divisor;
+            return this;
+        }
+
+        public Schema labelColumn(int column) {
+            this.labelColumn = column;
+            return this;
+        }
+
+        //rows whose label is one of these get label 1, all others 0
+        public Schema outlierLabels(String... labels) {
+            outlierLabels = toBytes(labels);
+            return this;
+        }
+
+        //only rows whose label is one of these are loaded
+        public Schema keepLabels(String... labels) {
+            keptLabels = toBytes(labels);
+            return this;
+        }
+
+        public int getFeatureCount() {
+            return featureColumns.length;
+        }
+
+        private static byte[][] toBytes(String[] labels) {
+            byte[][] bytes = new byte[labels.length][];
+            for (int i = 0; i < labels.length; i++) {
+                bytes[i] = labels[i].getBytes(StandardCharsets.US_ASCII);
+            }
+            return bytes;
+        }
+    }
+
+    //what a column is used for. values >= 0 are feature positions
+    private static final int IGNORED = -1;
+    private static final int LABEL = -2;
+
+    /**
+     * Loads the file at path. Returns the features, one row per kept line, and labels
+     * (1 for outliers, 0 otherwise).
+     */
+    public static Pair<double[][], int[]> load(String path, Schema schema) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = skipLines(channel, schema.skipLines);
+
+            //cut the rest of the file into chunks that end right after a newline
+            List<long[]> chunks = new ArrayList<>();
+            while (start < size) {
+                long end = start + CHUNK_SIZE >= size ? size : nextLineStart(channel, start + CHUNK_SIZE);
+                chunks.add(new long[] {start, end});
+                start = end;
+            }
+
+            List<Chunk> parsed;
+            try {
+                parsed = chunks.parallelStream()
+                        .map(c -> parse(channel, c[0], c[1], schema, path))
+                        .collect(Collectors.toList());
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            int rows = 0;
+            for (Chunk chunk : parsed) {
+                rows += chunk.rows;
+            }
+            int dimensions = schema.featureColumns.length;
+            double[][] features = new double[rows][];
+            int[] labels = new int[rows];
+            int row = 0;
+            for (Chunk chunk : parsed) {
+                for (int i = 0; i < chunk.rows; i++) {
+                    features[row] = Arrays.copyOfRange(chunk.features, i * dimensions, (i + 1) * dimensions);
+                    labels[row] = chunk.labels[i];
+                    row++;
+                }
+            }
+            return new Pair<double[][], int[]>(features, labels);
+        }
+    }
+
+    //rows parsed from one chunk, with the features packed row after row
+    static class Chunk {
+        double[] features;
+        int[] labels;
+        int rows;
+    }
+
+    /**
+     * Reads a stream a block of lines at a time, for files too big to load. It never maps
+     * or seeks, so any channel works, pipes included, and it leaves closing the channel
+     * to the caller. Each block is parsed into a Chunk the caller passes in, so memory
+     * stays at a block and a chunk however long the stream is.
+     */
+    static class ChunkReader {
+        private final ReadableByteChannel channel;
+        private final Schema schema;
+        private final String name;
+        //bytes read but not parsed yet are buffer[0, position)
+        private ByteBuffer buffer;
+        //offset in the stream of buffer[0], for error messages
+        private long offset;
+        private int linesToSkip;
+        private boolean ended;
+
+        ChunkReader(ReadableByteChannel channel, Schema schema, String name, int blockSize) {
+            this.channel = channel;
+            this.schema = schema;
+            this.name = name;
+            this.buffer = ByteBuffer.allocate(blockSize);
+            this.linesToSkip = schema.skipLines;
+        }
+
+        boolean hasLabels() {
+            return schema.labelColumn >= 0;
+        }
+
+        //parses the next rows into chunk. returns false, with chunk empty, at the end
+        boolean next(Chunk chunk) throws IOException {
+            chunk.rows = 0;
+            while (chunk.rows == 0) {
+                while (!ended && buffer.hasRemaining()) {
+                    ended = channel.read(buffer) < 0;
+                }
+                int filled = buffer.position();
+                if (ended && filled == 0) {
+                    return false;
+                }
+                //skipped lines can be dropped before they are complete
+                int start = 0;
+                while (linesToSkip > 0 && start < filled) {
+                    int newline = firstNewline(buffer, start, filled);
+                    if (newline < 0) {
+                        start = filled;
+                    } else {
+                        start = newline + 1;
+                        linesToSkip--;
+                    }
+                }
+                //whole lines only, unless the stream ends without a newline
+                int end = start;
+                if (linesToSkip == 0) {
+                    end = ended ? filled : lastNewline(buffer, start, filled) + 1;
+                    end = Math.max(end, start);
+                }
+                if (end > start) {
+                    ByteBuffer lines = buffer.duplicate();
+                    lines.position(start).limit(end);
+                    try {
+                        parse(lines.slice(), offset + start, schema, name, chunk);
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                }
+                if (end == 0 && !buffer.hasRemaining()) {
+                    //a line longer than the buffer
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                    continue;
+                }
+                //keep the unparsed tail for the next block
+                buffer.flip().position(end);
+                buffer.compact();
+                offset += end;
+            }
+            return true;
+        }
+
+        private static int firstNewline(ByteBuffer bytes, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bytes.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int lastNewline(ByteBuffer bytes, int from, int to) {
+            for (int i = to - 1; i >= from; i--) {
+                if (bytes.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    //returns the offset of the first byte after the given number of lines
+    private static long skipLines(FileChannel channel, int lines) throws IOException {
+        long position = 0;
+        for (int i = 0; i < lines && position < channel.size(); i++) {
+            position = nextLineStart(channel, position);
+        }
+        return position;
+    }
+
+    //returns the offset just past the first newline at or after position, or the file size
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long size = channel.size();
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static Chunk parse(FileChannel channel, long start, long end, Schema schema, String path) {
+        MappedByteBuffer bytes;
+        try {
+            bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Chunk chunk = new Chunk();
+        parse(bytes, start, schema, path, chunk);
+        return chunk;
+    }
+
+    //parses the lines of bytes[0, limit), which start at byte start of the file, into
+    //chunk. its arrays are reused when they are big enough
+    private static void parse(ByteBuffer bytes, long start, Schema schema, String path, Chunk chunk) {
+        int[] roles = columnRoles(schema);
+        int dimensions = schema.featureColumns.length;
+        if (chunk.labels == null) {
+            chunk.features = new double[dimensions * 1024];
+            chunk.labels = new int[1024];
+        }
+        chunk.rows = 0;
+        double[] row = new double[dimensions];
+        int limit = bytes.limit();
+        int position = 0;
+
+        while (position < limit) {
+            int lineEnd = position;
+            while (lineEnd < limit && bytes.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > position && bytes.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (isBlank(bytes, position, lineEnd)) {
+                position = next;
+                continue;
+            }
+
+            //walk the fields of the line
+            int column = 0;
+            int found = 0;
+            int labelStart = -1, labelEnd = -1;
+            int field = position;
+            if (schema.whitespace) {
+                field = skipWhitespace(bytes, field, lineEnd);
+            }
+            while (field <= lineEnd && column < roles.length) {
+                int fieldEnd = field;
+                if (schema.whitespace) {
+                    while (fieldEnd < lineEnd && !isWhitespace(bytes.get(fieldEnd))) {
+                        fieldEnd++;
+                    }
+                } else {
+                    while (fieldEnd < lineEnd && bytes.get(fieldEnd) != schema.delimiter) {
+                        fieldEnd++;
+                    }
+                }
+                int role = roles[column];
+                if (role >= 0) {
+                    row[role] = parseDouble(bytes, field, fieldEnd, path, start) / schema.divisor;
+                    found++;
+                } else if (role == LABEL) {
+                    labelStart = field;
+                    labelEnd = fieldEnd;
+                    found++;
+                }
+                column++;
+                field = fieldEnd + 1;
+                if (schema.whitespace) {
+                    field = skipWhitespace(bytes, field, lineEnd);
+                    if (field == lineEnd) {
+                        break;
+                    }
+                }
+            }
+            if (found < dimensions + (schema.labelColumn >= 0 ? 1 : 0)) {
+                throw new UncheckedIOException(new IOException("Line at byte " + (start + position)
+                        + " of " + path + " has only " + column + " columns."));
+            }
+            position = next;
+
+            if (schema.keptLabels != null && !matchesAny(bytes, labelStart, labelEnd, schema.keptLabels)) {
+                continue;
+            }
+            if (chunk.rows == chunk.labels.length) {
+                chunk.labels = Arrays.copyOf(chunk.labels, chunk.rows * 2);
+                chunk.features = Arrays.copyOf(chunk.features, chunk.rows * 2 * dimensions);
+            }
+            System.arraycopy(row, 0, chunk.features, chunk.rows * dimensions, dimensions);
+            chunk.labels[chunk.rows] = labelStart >= 0
+                    && matchesAny(bytes, labelStart, labelEnd, schema.outlierLabels) ? 1 : 0;
+            chunk.rows++;
+        }
+    }
+
+    private static int[] columnRoles(Schema schema) {
+        int columns = schema.labelColumn + 1;
+        for (int column : schema.featureColumns) {
+            columns = Math.max(columns, column + 1);
+        }
+        int[] roles = new int[columns];
+        Arrays.fill(roles, IGNORED);
+        for (int i = 0; i < schema.featureColumns.length; i++) {
+            roles[schema.featureColumns[i]] = i;
+        }
+        if (schema.labelColumn >= 0) {
+            roles[schema.labelColumn] = LABEL;
+        }
+        return roles;
+    }
+
+    /**
+     * Parses a decimal number from bytes[from, to). Numbers with at most 15 significant
+     * digits and a small exponent, which is nearly every value in practice, are converted
+     * exactly with one multiplication or division. Anything else falls back to
+     * Double.parseDouble, so the result always matches it.
+     */
+    static double parseDouble(ByteBuffer bytes, int from, int to, String path, long offset) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+            negative = bytes.get(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        while (i < to && isDigit(bytes.get(i))) {
+            anyDigit = true;
+            if (mantissa != 0 || bytes.get(i) != '0') {
+                digits++;
+            }
+            mantissa = mantissa * 10 + (bytes.get(i) - '0');
+            i++;
+            if (digits > 15) {
+                return parseSlow(bytes, from, to, path, offset);
+            }
+        }
+        if (i < to && bytes.get(i) == '.') {
+            i++;
+            while (i < to && isDigit(bytes.get(i))) {
+                anyDigit = true;
+                if (mantissa != 0 || bytes.get(i) != '0') {
+                    digits++;
+                }
+                mantissa = mantissa * 10 + (bytes.get(i) - '0');
+                exponent--;
+                i++;
+                if (digits > 15) {
+                    return parseSlow(bytes, from, to, path, offset);
+                }
+            }
+        }
+        if (!anyDigit) {
+            return parseSlow(bytes, from, to, path, offset);
+        }
+        if (i < to && (bytes.get(i) == 'e' || bytes.get(i) == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (bytes.get(i) == '-' || bytes.get(i) == '+')) {
+                negativeExponent = bytes.get(i) == '-';
+                i++;
+            }
+            int value = 0;
+            int start = i;
+            while (i < to && isDigit(bytes.get(i)) && value < 1000) {
+                value = value * 10 + (bytes.get(i) - '0');
+                i++;
+            }
+            if (i == start) {
+                return parseSlow(bytes, from, to, path, offset);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != to || exponent < -22 || exponent > 22) {
+            return parseSlow(bytes, from, to, path, offset);
+        }
+        //both the mantissa and the power of ten are exact doubles, so one operation
+        //rounds correctly
+        double result = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent]
+                : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -result : result;
+    }
+
+    private static double parseSlow(ByteBuffer bytes, int from, int to, String path, long offset) {
+        byte[] text = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            text[i - from] = bytes.get(i);
+        }
+        String value = new String(text, StandardCharsets.US_ASCII).trim();
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new UncheckedIOException(new IOException("Bad number \"" + value + "\" at byte "
+                    + (offset + from) + " of " + path + "."));
+        }
+    }
+
+    private static boolean matchesAny(ByteBuffer bytes, int from, int to, byte[][] labels) {
+        for (byte[] label : labels) {
+            if (label.length != to - from) {
+                continue;
+            }
+            boolean equal = true;
+            for (int i = 0; i < label.length && equal; i++) {
+                equal = bytes.get(from + i) == label[i];
+            }
+            if (equal) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBlank(ByteBuffer bytes, int from, int to) {
+        return skipWhitespace(bytes, from, to) == to;
+    }
+
+    private static int skipWhitespace(ByteBuffer bytes, int from, int to) {
+        while (from < to && isWhitespace(bytes.get(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Read access to a feature matrix of size() rows by dimensions() columns.
+ *
+ * The forest, its trees and EIF_LOF only read their data through this interface, so the
+ * values can live in a plain double[][] (ArrayDataset) or outside the Java heap
+ * (OffHeapDataset). The bulk operations let each implementation walk its own memory
+ * layout instead of going through get one value at a time.
+ */
+public interface Dataset {
+
+    int size();
+
+    int dimensions();
+
+    double get(int row, int column);
+
+    //copies the row into buffer[0, dimensions)
+    void copyRow(int row, double[] buffer);
+
+    /**
+     * Dot product of the row with count coefficients starting at coefficients[offset].
+     * Coefficient i applies to column columns[offset + i], or to column i when columns
+     * is null. Terms are added in the order DotKernel defines, so every implementation
+     * returns the same value for the same data.
+     */
+    double dot(int row, double[] coefficients, int[] columns, int offset, int count);
+
+    //one hyperplane against a batch of rows: out[i] = dot(rows[i], ...) for i in [from, to)
+    default void dots(int[] rows, int from, int to, double[] coefficients, int[] columns,
+            int offset, int count, double[] out) {
+        for (int i = from; i < to; i++) {
+            out[i] = dot(rows[i], coefficients, columns, offset, count);
+        }
+    }
+
+    //squared euclidean distance between the row and x
+    double squaredDistance(int row, double[] x);
+}
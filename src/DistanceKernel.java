@@ -0,0 +1,137 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Exact k-nearest-neighbour search for many query rows at once, by brute force.
+ *
+ * The work is tiled so it stays in cache: queries are taken QUERY_TILE rows at a time
+ * (one task per tile, run in parallel) and the dataset is streamed through each task in
+ * tiles of about L1_TILE_DOUBLES values, copied into a flat buffer once and then
+ * compared against every query of the tile. Distances stay squared while they are
+ * compared and go into one bounded heap per query row, so the square root is only taken
+ * for the k results.
+ */
+public class DistanceKernel {
+    //query rows per task. their heaps and coordinates stay in L2 while data streams past
+    private static final int QUERY_TILE = 64;
+    //size of a data tile, in doubles: 32KB, about an L1 data cache
+    private static final int L1_TILE_DOUBLES = 4096;
+
+    private final Dataset dataset;
+    private int parallelism;
+    private ForkJoinPool pool;
+
+    public DistanceKernel(Dataset dataset) {
+        this.dataset = dataset;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    public synchronized void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+        if (parallelism != this.parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * The k nearest rows to each of the query rows, not counting the query row itself.
+     * Results are flattened: the neighbours of queries[i] and their euclidean distances
+     * are at [i * k, (i + 1) * k) of the returned arrays, nearest first, with ties in
+     * distance going to the lower row index.
+     */
+    public Pair<int[], double[]> nearest(int[] queries, int k) {
+        if (k < 1 || k >= dataset.size()) {
+            throw new IllegalArgumentException("k must be between 1 and the dataset size - 1.");
+        }
+        int[] neighbors = new int[queries.length * k];
+        double[] distances = new double[queries.length * k];
+        ParallelBlocks.run(parallelism == 1 || queries.length <= QUERY_TILE ? null : getPool(),
+                queries.length, QUERY_TILE,
+                (from, to) -> nearest(queries, from, to, k, neighbors, distances));
+        return new Pair<int[], double[]>(neighbors, distances);
+    }
+
+    //created on first use. indices built on the kernel are queried from many threads
+    private synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    //one query tile against the whole dataset
+    private void nearest(int[] queries, int from, int to, int k, int[] neighbors, double[] distances) {
+        int dimensions = dataset.dimensions();
+        int queryCount = to - from;
+        double[] queryTile = new double[queryCount * dimensions];
+        double[] point = new double[dimensions];
+        NeighborHeap[] heaps = new NeighborHeap[queryCount];
+        for (int q = 0; q < queryCount; q++) {
+            dataset.copyRow(queries[from + q], point);
+            System.arraycopy(point, 0, queryTile, q * dimensions, dimensions);
+            heaps[q] = new NeighborHeap(k);
+        }
+
+        int tileRows = Math.max(1, L1_TILE_DOUBLES / dimensions);
+        double[] dataTile = new double[tileRows * dimensions];
+        for (int tileStart = 0; tileStart < dataset.size(); tileStart += tileRows) {
+            int tileEnd = Math.min(dataset.size(), tileStart + tileRows);
+            for (int row = tileStart; row < tileEnd; row++) {
+                dataset.copyRow(row, point);
+                System.arraycopy(point, 0, dataTile, (row - tileStart) * dimensions, dimensions);
+            }
+            //four queries at a time, so each data value loaded is used four times
+            int q = 0;
+            for (; q + 4 <= queryCount; q += 4) {
+                int base0 = q * dimensions;
+                int base1 = base0 + dimensions;
+                int base2 = base1 + dimensions;
+                int base3 = base2 + dimensions;
+                for (int row = tileStart; row < tileEnd; row++) {
+                    int rowBase = (row - tileStart) * dimensions;
+                    double distance0 = 0, distance1 = 0, distance2 = 0, distance3 = 0;
+                    for (int i = 0; i < dimensions; i++) {
+                        double value = dataTile[rowBase + i];
+                        double difference0 = value - queryTile[base0 + i];
+                        double difference1 = value - queryTile[base1 + i];
+                        double difference2 = value - queryTile[base2 + i];
+                        double difference3 = value - queryTile[base3 + i];
+                        distance0 += difference0 * difference0;
+                        distance1 += difference1 * difference1;
+                        distance2 += difference2 * difference2;
+                        distance3 += difference3 * difference3;
+                    }
+                    offer(heaps[q], queries[from + q], row, distance0);
+                    offer(heaps[q + 1], queries[from + q + 1], row, distance1);
+                    offer(heaps[q + 2], queries[from + q + 2], row, distance2);
+                    offer(heaps[q + 3], queries[from + q + 3], row, distance3);
+                }
+            }
+            for (; q < queryCount; q++) {
+                int queryBase = q * dimensions;
+                for (int row = tileStart; row < tileEnd; row++) {
+                    int rowBase = (row - tileStart) * dimensions;
+                    double distance = 0;
+                    for (int i = 0; i < dimensions; i++) {
+                        double difference = dataTile[rowBase + i] - queryTile[queryBase + i];
+                        distance += difference * difference;
+                    }
+                    offer(heaps[q], queries[from + q], row, distance);
+                }
+            }
+        }
+        for (int q = 0; q < queryCount; q++) {
+            heaps[q].drainInto(neighbors, distances, (from + q) * k);
+        }
+    }
+
+    private static void offer(NeighborHeap heap, int query, int row, double squaredDistance) {
+        //dont count yourself
+        if (row != query && squaredDistance <= heap.worst()) {
+            heap.offer(row, squaredDistance);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Dot products of points with hyperplane normals, the innermost loop of building and
+ * scoring trees.
+ *
+ * A single running sum makes every term wait for the one before it, so products are
+ * added into LANES partial sums instead: term j goes to partial sum j % LANES while a
+ * whole group of LANES terms is left, and the partial sums are then combined as
+ * ((p0 + p4) + (p1 + p5)) + ((p2 + p6) + (p3 + p7)), with the remaining terms added to
+ * that one at a time. Every kernel and every Dataset adds in exactly this order, so they
+ * all return the same bits for the same data.
+ *
+ * PREFERRED is the vectorized kernel in vector/VectorDotKernel.java when it has been
+ * compiled and the JVM runs with --add-modules jdk.incubator.vector, and SCALAR
+ * otherwise. -Deif.scalar=true forces SCALAR.
+ */
+public interface DotKernel {
+    //partial sums of the summation order above
+    int LANES = 8;
+
+    DotKernel SCALAR = new DotKernel() {
+        @Override
+        public double dot(double[] x, double[] coefficients, int[] columns, int offset, int count) {
+            return columns == null ? denseDot(x, coefficients, offset, count)
+                    : sparseDot(x, coefficients, columns, offset, count);
+        }
+    };
+
+    DotKernel PREFERRED = load();
+
+    /**
+     * Dot product of x with count coefficients starting at coefficients[offset].
+     * Coefficient i applies to x[columns[offset + i]], or to x[i] when columns is null.
+     */
+    double dot(double[] x, double[] coefficients, int[] columns, int offset, int count);
+
+    /**
+     * One hyperplane against a batch of points: sets out[i], for i in [from, to), to the
+     * dot product of points[rows[i]] with the coefficients, as dot would.
+     */
+    default void dots(double[][] points, int[] rows, int from, int to, double[] coefficients,
+            int[] columns, int offset, int count, double[] out) {
+        for (int i = from; i < to; i++) {
+            out[i] = dot(points[rows[i]], coefficients, columns, offset, count);
+        }
+    }
+
+    //adds terms [from, count), the ones after the last whole group of LANES, in order
+    static double addRemaining(double result, double[] x, double[] coefficients, int[] columns,
+            int offset, int from, int count) {
+        for (int i = from; i < count; i++) {
+            result += x[columns == null ? i : columns[offset + i]] * coefficients[offset + i];
+        }
+        return result;
+    }
+
+    //SCALAR over all of x[0, count). dense and sparse are kept apart so each stays small
+    //enough to be inlined into its caller
+    private static double denseDot(double[] x, double[] coefficients, int offset, int count) {
+        double p0 = 0, p1 = 0, p2 = 0, p3 = 0, p4 = 0, p5 = 0, p6 = 0, p7 = 0;
+        int i = 0;
+        for (; i <= count - LANES; i += LANES) {
+            int c = offset + i;
+            p0 += x[i] * coefficients[c];
+            p1 += x[i + 1] * coefficients[c + 1];
+            p2 += x[i + 2] * coefficients[c + 2];
+            p3 += x[i + 3] * coefficients[c + 3];
+            p4 += x[i + 4] * coefficients[c + 4];
+            p5 += x[i + 5] * coefficients[c + 5];
+            p6 += x[i + 6] * coefficients[c + 6];
+            p7 += x[i + 7] * coefficients[c + 7];
+        }
+        double result = ((p0 + p4) + (p1 + p5)) + ((p2 + p6) + (p3 + p7));
+        return addRemaining(result, x, coefficients, null, offset, i, count);
+    }
+
+    //SCALAR over x[columns[offset + i]]
+    private static double sparseDot(double[] x, double[] coefficients, int[] columns, int offset,
+            int count) {
+        double p0 = 0, p1 = 0, p2 = 0, p3 = 0, p4 = 0, p5 = 0, p6 = 0, p7 = 0;
+        int i = 0;
+        for (; i <= count - LANES; i += LANES) {
+            int c = offset + i;
+            p0 += x[columns[c]] * coefficients[c];
+            p1 += x[columns[c + 1]] * coefficients[c + 1];
+            p2 += x[columns[c + 2]] * coefficients[c + 2];
+            p3 += x[columns[c + 3]] * coefficients[c + 3];
+            p4 += x[columns[c + 4]] * coefficients[c + 4];
+            p5 += x[columns[c + 5]] * coefficients[c + 5];
+            p6 += x[columns[c + 6]] * coefficients[c + 6];
+            p7 += x[columns[c + 7]] * coefficients[c + 7];
+        }
+        double result = ((p0 + p4) + (p1 + p5)) + ((p2 + p6) + (p3 + p7));
+        return addRemaining(result, x, coefficients, columns, offset, i, count);
+    }
+
+    //the vector kernel is looked up by name, so this compiles and runs without the module
+    private static DotKernel load() {
+        if (Boolean.getBoolean("eif.scalar")) {
+            return SCALAR;
+        }
+        String packageName = DotKernel.class.getPackageName();
+        String name = (packageName.isEmpty() ? "" : packageName + ".") + "VectorDotKernel";
+        try {
+            return (DotKernel) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            //not compiled, the module is missing, or the cpu has no useful vector width
+            return SCALAR;
+        }
+    }
+}
@@ -4,45 +4,67 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Scanner;
 
-public class EIF_LOF {
-    private double[][] dataset;
+public class EIF_LOF implements AutoCloseable {
+    private Dataset dataset;
     private int[] labels;
     //array of indices of candidate points
     private int[] candidates;
     private double outlierThreshold;
     private ExtendedIsolationForest eif;
-    private List<List<Neighbor>> neighborsList;
+    private NeighborIndex neighborIndex;
+    //receives phase timings and neighbor cache counts. null, and never measured, by default
+    private MetricsListener metrics;
     private double[] lof;
     private int numberOfOutliers;
     
     public EIF_LOF(double[][] dataset, int[] labels) {
+        this(new ArrayDataset(dataset), labels);
+    }
+    
+    public EIF_LOF(Dataset dataset, int[] labels) {
         this.dataset = dataset;
         this.labels = labels;
         eif = new ExtendedIsolationForest(dataset, 40, 128, false);
-        neighborsList = new ArrayList<>(dataset.length);
-        for (int i = 0; i < dataset.length; i++) {
-            neighborsList.add(null);
-        }
+    }
+    
+    //index used for the lof neighbor queries. by default one is built over the dataset
+    //when outliers are first requested
+    public void setNeighborIndex(NeighborIndex neighborIndex) {
+        this.neighborIndex = neighborIndex;
+    }
+    
+    //also passed on to the forest that picks the candidates
+    public void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+        eif.setMetricsListener(metrics);
+    }
+    
+    //shuts down the threads of the forest that picks the candidates
+    @Override
+    public void close() {
+        eif.close();
     }
     
     public int[] getOutliers() {
+        long start = metrics == null ? 0 : System.nanoTime();
         calculateOutlierThreshold();
-        //get outlier scores for all points from eif. we will then take the top threshold% 
-        //eif returns descending list of outliers
-        List<Integer> output = eif.getOutliers(dataset.length);
-        System.out.println(output.size() + " outliers found from EIF.");
-        numberOfOutliers = (int) (dataset.length * outlierThreshold);
-        candidates = new int[numberOfOutliers];
-        for (int i = 0; i < numberOfOutliers; i++) {
-            candidates[i] = output.get(i);
+        start = phaseCompleted("lof.threshold", start);
+        //take the top threshold% of points by eif outlier score as candidates.
+        //eif returns them in descending order of score
+        numberOfOutliers = (int) Math.min(dataset.size(), dataset.size() * outlierThreshold);
+        candidates = eif.getTopOutliers(numberOfOutliers).l;
+        start = phaseCompleted("lof.candidates", start);
+        if (metrics != null) {
+            metrics.valueChosen("lof.threshold", outlierThreshold);
+            metrics.valueChosen("lof.candidates", candidates.length);
+        }
+        if (neighborIndex == null) {
+            neighborIndex = NeighborIndex.build(dataset);
+            phaseCompleted("lof.index", start);
         }
-        lof = new double[candidates.length];
-        System.out.println("Outlier threshold: " + outlierThreshold
-                + ". Dataset size * threshold= " + numberOfOutliers + " " + candidates.length);
         return LOF(15);
     }
     
@@ -53,13 +75,12 @@ public class EIF_LOF {
         //top X scoring points reported as outliers
         //automatically determine number of outliers based on threshold and data size?
         
-        for (int i = 0; i < candidates.length; i++) {
-            List<Neighbor> neighbors = getNeighbors(candidates[i]);
-            double avgReachDens = 0;
-            for (int j = 0; j < k; j++) {
-                avgReachDens += getReachabilityDensity(neighbors.get(j).index, k);
-            }
-            lof[i] = (avgReachDens / k) / getReachabilityDensity(candidates[i], k);
+        long start = metrics == null ? 0 : System.nanoTime();
+        LocalOutlierFactor engine = new LocalOutlierFactor(neighborIndex, dataset.size(), k);
+        lof = engine.score(candidates);
+        if (metrics != null) {
+            metrics.neighborLookups(engine.getLookupCount(), engine.getCacheHitCount());
+            phaseCompleted("lof.score", start);
         }
         
         //sort candidates by lof score
@@ -80,63 +101,44 @@ public class EIF_LOF {
         return outliers;
     }
     
-    //takes the index of the point in the dataset, NOT in the candidate set
-    private List<Neighbor> getNeighbors(int index) {
-        if (neighborsList.get(index) != null)
-            return neighborsList.get(index);
-        
-        List<Neighbor> neighbors = new LinkedList<>();
-        for (int i = 0; i < dataset.length; i++) {
-            //dont count yourself
-            if (index == i) continue;
-            double distance = 0;
-            for (int j = 0; j < dataset[0].length; j++) {
-                distance += Math.pow(dataset[index][j] - dataset[i][j], 2);
-            }
-            distance = Math.sqrt(distance);
-            neighbors.add(new Neighbor(distance, i));
-        }
-        
-        Collections.sort(neighbors);
-        neighborsList.set(index, neighbors);
-        return neighbors;
-    }
-    
-    private double getReachabilityDensity(int index, int k) {
-        List<Neighbor> neighbors = getNeighbors(index);
-        double reachDens = 0;
-        for (int i = 0; i < k; i++) {
-            double ithNeighborKDist = getNeighbors(neighbors.get(i).index).get(k).dist;
-            reachDens += Math.max(neighbors.get(i).dist, ithNeighborKDist);
+    //reports the phase that began at start, and returns the time it ended
+    private long phaseCompleted(String phase, long start) {
+        if (metrics == null) {
+            return 0;
         }
-        reachDens = 1 / (reachDens / k);
-        return reachDens;
+        long end = System.nanoTime();
+        metrics.phaseCompleted(phase, end - start);
+        return end;
     }
     
     private void calculateOutlierThreshold() {
         //calculate average of each dimension
-        double[] dimensionAverages = new double[dataset[0].length];
-        for (int i = 0; i < dataset.length; i++) {
-            for (int j = 0; j < dataset[0].length; j++) {
-                dimensionAverages[j] += dataset[i][j]; 
+        int dimensions = dataset.dimensions();
+        double[] point = new double[dimensions];
+        double[] dimensionAverages = new double[dimensions];
+        for (int i = 0; i < dataset.size(); i++) {
+            dataset.copyRow(i, point);
+            for (int j = 0; j < dimensions; j++) {
+                dimensionAverages[j] += point[j]; 
             }
         }
-        for (int i = 0; i < dataset[0].length; i++) {
-            dimensionAverages[i] /= dataset.length; 
+        for (int i = 0; i < dimensions; i++) {
+            dimensionAverages[i] /= dataset.size(); 
         }
         
         //calculate dispersion in each dimension
         //dispersion coefficient: sqrt(sum(xi - xMean)^2 / n) / xMean
         //sum the squares of the differences
-        double[] dimensionDispersions = new double[dataset[0].length];
-        for (int i = 0; i < dataset.length; i++) {
-            for (int j = 0; j < dataset[0].length; j++) {
-                dimensionDispersions[j] += Math.pow(dataset[i][j] - dimensionAverages[j], 2);
+        double[] dimensionDispersions = new double[dimensions];
+        for (int i = 0; i < dataset.size(); i++) {
+            dataset.copyRow(i, point);
+            for (int j = 0; j < dimensions; j++) {
+                dimensionDispersions[j] += Math.pow(point[j] - dimensionAverages[j], 2);
             }
         }
         //divide by n, square root it, divide by mean
-        for (int i = 0; i < dataset[0].length; i++) {
-            dimensionDispersions[i] = Math.sqrt(dimensionDispersions[i] / dataset.length) / dimensionAverages[i];
+        for (int i = 0; i < dimensions; i++) {
+            dimensionDispersions[i] = Math.sqrt(dimensionDispersions[i] / dataset.size()) / dimensionAverages[i];
         }
         
         
@@ -0,0 +1,44 @@
+/**
+ * Base of the off-heap stores, which keep values in an encoding of their own (doubles,
+ * floats or byte codes in direct buffers) and decode them one at a time.
+ *
+ * Dot products decode the row's values into a per-thread double[] first and hand it to
+ * DotKernel, so they add in DotKernel's order and return what an ArrayDataset holding the
+ * decoded values would.
+ */
+abstract class EncodedDataset implements Dataset {
+    private final ThreadLocal<double[]> rowBuffer = ThreadLocal.withInitial(() -> new double[dimensions()]);
+
+    //the value at row, column, decoded to a double
+    abstract double decode(int row, int column);
+
+    @Override
+    public double get(int row, int column) {
+        return decode(row, column);
+    }
+
+    @Override
+    public double dot(int row, double[] coefficients, int[] columns, int offset, int count) {
+        double[] x = rowBuffer.get();
+        decodeRow(row, x, columns, offset, count);
+        return DotKernel.PREFERRED.dot(x, coefficients, columns, offset, count);
+    }
+
+    @Override
+    public void dots(int[] rows, int from, int to, double[] coefficients, int[] columns,
+            int offset, int count, double[] out) {
+        double[] x = rowBuffer.get();
+        for (int i = from; i < to; i++) {
+            decodeRow(rows[i], x, columns, offset, count);
+            out[i] = DotKernel.PREFERRED.dot(x, coefficients, columns, offset, count);
+        }
+    }
+
+    //decodes the values of the row that count coefficients apply to into x, by column
+    private void decodeRow(int row, double[] x, int[] columns, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            int column = columns == null ? i : columns[offset + i];
+            x[column] = decode(row, column);
+        }
+    }
+}
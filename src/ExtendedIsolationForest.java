@@ -1,11 +1,11 @@
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
-public class ExtendedIsolationForest {
+public class ExtendedIsolationForest implements AutoCloseable {
     //sort not above/below, but near/far. near dist 3 std dev or similar
     //could generate two hyperplanes. same angle. from random point in range,
     //shift up/down by std dev of current points. or by like 1/4 the range
@@ -19,47 +19,219 @@ public class ExtendedIsolationForest {
      * for h(x) being the path length to an element
      * */
     
-    private double[][] dataset;
+    private Dataset dataset;
     private int[] labels;
     private int[] candidates;
-    private IsolationTree[] trees;
+    //the fitted forest, null until fit is called. anomalyScores hold its scores for dataset
+    private IsolationForestModel model;
     private double[] anomalyScores;
+    //false while anomalyScores do not hold the current model's scores
+    private boolean scored;
+    //when set, fit leaves the dataset unscored and outlier queries only score points as far
+    //as they need to. null scores every point with every tree
+    private StoppingRule stoppingRule;
+    //the rule the current model was fitted with, used by outlier queries while !scored
+    private StoppingRule fittedRule;
     
     private int treeCount;
     private int heightLimit;
     private int sampleSize;
-    private double avgPathLength;
     private boolean splitOnProximity;
+    //share of each node's points sent to the near side when splitting on proximity
+    private double proximityFraction = IsolationTree.DEFAULT_PROXIMITY_FRACTION;
+    //how many dimensions each hyperplane may tilt across. 0 gives the axis-parallel
+    //splits of the original isolation forest, dimensions - 1 the fully extended forest
+    private int extensionLevel;
+    //forest-wide seed. every tree derives its own generator from it, so the same seed
+    //gives the same forest no matter how many threads build it
+    private long seed;
+    //number of threads used for building and scoring, and the pool that provides them
+    private int parallelism;
+    private ForkJoinPool pool;
+    //points handed to one scoring task
+    private static final int SCORE_BLOCK_SIZE = 1024;
+    //receives build and scoring measurements. null, and never measured, by default
+    private MetricsListener metrics;
     
     public ExtendedIsolationForest(double[][] dataset, int treeCount, int sampleSize,
             boolean splitOnProximity) {
+        this(new ArrayDataset(dataset), treeCount, sampleSize, splitOnProximity);
+    }
+    
+    public ExtendedIsolationForest(double[][] dataset, int treeCount, int sampleSize,
+            boolean splitOnProximity, int extensionLevel) {
+        this(new ArrayDataset(dataset), treeCount, sampleSize, splitOnProximity, extensionLevel);
+    }
+    
+    public ExtendedIsolationForest(Dataset dataset, int treeCount, int sampleSize,
+            boolean splitOnProximity) {
+        this(dataset, treeCount, sampleSize, splitOnProximity, dataset.dimensions() - 1);
+    }
+    
+    public ExtendedIsolationForest(Dataset dataset, int treeCount, int sampleSize,
+            boolean splitOnProximity, int extensionLevel) {
+        if (extensionLevel < 0 || extensionLevel >= dataset.dimensions()) {
+            throw new IllegalArgumentException("Extension level must be between 0 and "
+                    + (dataset.dimensions() - 1) + ".");
+        }
         this.dataset = dataset;
         this.treeCount = treeCount;
         this.sampleSize = sampleSize; //authors suggest 128 or 256
-        this.trees = new IsolationTree[treeCount];
         this.heightLimit = (int) Math.ceil(Math.log10(sampleSize)/Math.log10(2));
-        this.anomalyScores = new double[dataset.length];
-        //avg path length: c(n) = 2H(n-1) - (2(n-1)/n)
-        //for n being the number of samples of the whole dataset X
-        //for H(i) being ln(i) + .5772156649
-        this.avgPathLength = getAvgPathLength(sampleSize);
+        this.anomalyScores = new double[dataset.size()];
         this.splitOnProximity = splitOnProximity;
+        this.extensionLevel = extensionLevel;
+        this.seed = new Random().nextLong();
+        this.parallelism = Runtime.getRuntime().availableProcessors();
     }
     
+    //fixes the seed used by the next call to fit
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    
+    //number of threads used to build trees and score points. 1 runs everything on the caller
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+        if (parallelism != this.parallelism && pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.parallelism = parallelism;
+    }
+    
+    //shuts down the forest's threads. the forest can still be used, and starts new ones
+    //if it needs them
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+    
+    //used by the next call to fit. only matters when splitting on proximity
+    public void setProximityFraction(double proximityFraction) {
+        if (!(proximityFraction > 0 && proximityFraction < 1)) {
+            throw new IllegalArgumentException("Proximity fraction must be between 0 and 1.");
+        }
+        this.proximityFraction = proximityFraction;
+    }
+    
+    public void setMetricsListener(MetricsListener metrics) {
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Makes fit skip scoring the dataset, and getOutliers and getTopOutliers run points
+     * through the trees a round at a time until the rule settles which side of the
+     * cutoff they are on (see AdaptiveScorer). getAnomalyScores still scores everything.
+     * Takes effect from the next fit; null switches it off.
+     */
+    public void setStoppingRule(StoppingRule stoppingRule) {
+        this.stoppingRule = stoppingRule;
+    }
+    
+    //avg path length: c(n) = 2H(n-1) - (2(n-1)/n)
+    //for n being the number of samples of the whole dataset X
+    //for H(i) being ln(i) + .5772156649
     public static double getAvgPathLength(int sampleSize) {
         if (sampleSize < 2) return 0;
         return 2 * (Math.log(sampleSize - 1) + .5772156649)
         - ((2 * (sampleSize - 1)) / sampleSize);
     }
     
-    //returns the indices of all points with an outlier score higher than the threshold
-    public List<Integer> getOutliers(double threshold) {
-        if (trees[0] == null) {
-            generateTrees();
+    /**
+     * Builds a new forest from a fresh sample of the dataset and scores the dataset
+     * with it. The returned model is immutable and can score any other points, from
+     * any number of threads. Every later query on this object uses it until fit is
+     * called again.
+     */
+    public IsolationForestModel fit() {
+        model = buildModel();
+        scored = false;
+        fittedRule = stoppingRule;
+        if (fittedRule == null) {
+            calculateAnomalyScores();
+        }
+        return model;
+    }
+    
+    //builds a forest as fit does, but leaves this object's model and scores alone
+    IsolationForestModel buildModel() {
+        long start = metrics == null ? 0 : System.nanoTime();
+        IsolationForestModel built = new IsolationForestModel(generateTrees(), sampleSize,
+                heightLimit, dataset.dimensions(), extensionLevel, splitOnProximity, seed);
+        if (metrics != null) {
+            metrics.phaseCompleted("build", System.nanoTime() - start);
+        }
+        return built;
+    }
+    
+    //the current model, fitting one first if needed
+    public IsolationForestModel getModel() {
+        if (model == null) {
+            fit();
+        }
+        return model;
+    }
+    
+    //writes the current model, see IsolationForestModel.save
+    public void save(String path) throws IOException {
+        getModel().save(path);
+    }
+    
+    //loads a model written by save and scores the given dataset with it
+    public static ExtendedIsolationForest load(String path, double[][] dataset) throws IOException {
+        return load(path, new ArrayDataset(dataset));
+    }
+    
+    public static ExtendedIsolationForest load(String path, Dataset dataset) throws IOException {
+        IsolationForestModel model = IsolationForestModel.load(path);
+        if (dataset.dimensions() != model.getDimensions()) {
+            throw new IllegalArgumentException("Model expects " + model.getDimensions()
+                    + " dimensions but the dataset has " + dataset.dimensions() + ".");
+        }
+        ExtendedIsolationForest forest = new ExtendedIsolationForest(dataset, model.getTreeCount(),
+                model.getSampleSize(), model.isSplitOnProximity(), model.getExtensionLevel());
+        forest.heightLimit = model.getHeightLimit();
+        forest.seed = model.getSeed();
+        forest.model = model;
+        forest.calculateAnomalyScores();
+        return forest;
+    }
+    
+    //returns the anomaly score of every point in the dataset, fitting the forest if needed
+    public double[] getAnomalyScores() {
+        getModel();
+        if (!scored) {
             calculateAnomalyScores();
         }
+        return anomalyScores.clone();
+    }
+    
+    //returns the indices of all points with an outlier score higher than the threshold
+    public List<Integer> getOutliers(double threshold) {
+        getModel();
         List<Integer> outliers = new ArrayList<>();
-        for (int i = 0; i < dataset.length; i++) {
+        if (!scored) {
+            long start = metrics == null ? 0 : System.nanoTime();
+            boolean[] above = new boolean[dataset.size()];
+            runBlocks(dataset.size(), SCORE_BLOCK_SIZE, (from, to) ->
+                    new AdaptiveScorer(model, fittedRule).above(dataset, from, to, threshold, above));
+            for (int i = 0; i < dataset.size(); i++) {
+                if (above[i]) {
+                    outliers.add(i);
+                }
+            }
+            if (metrics != null) {
+                metrics.phaseCompleted("score.adaptive", System.nanoTime() - start);
+            }
+            return outliers;
+        }
+        for (int i = 0; i < dataset.size(); i++) {
             if (anomalyScores[i] > threshold) {
                 outliers.add(i);
             }
@@ -69,93 +241,92 @@ public class ExtendedIsolationForest {
     
     //returns the indices of the top N outliers
     public List<Integer> getOutliers(int n) {
-        generateTrees();
-        calculateAnomalyScores();
-        List<Integer> outliers = new ArrayList<>(n);
-        
-        //sort a copy of the anomaly scores and mirror the sort on a list of indices
-        double[] anomalyCopy = new double[anomalyScores.length];
-        for (int i = 0; i < dataset.length; i++) {
-            anomalyCopy[i] = anomalyScores[i];
+        Pair<int[], double[]> top = getTopOutliers(n);
+        if (metrics != null && top.l.length > 0) {
+            metrics.valueChosen("outliers.threshold", top.r[top.l.length - 1]);
         }
-        int[] indices = new int[dataset.length];
-        for (int i = 0; i < dataset.length; i++) {
-            indices[i] = i;
+        List<Integer> outliers = new ArrayList<>(top.l.length);
+        for (int i = 0; i < top.l.length; i++) {
+            outliers.add(top.l[i]);
         }
-        
-        //simple selection sort
-        for (int i = 0; i < anomalyCopy.length; i++) {
-            double maxElement = anomalyCopy[i];
-            int maxElementIndex = i;
-            for (int j = i; j < anomalyCopy.length; j++) {
-                if (anomalyCopy[j] > maxElement) {
-                    maxElement = anomalyCopy[j];
-                    maxElementIndex = j;
-                }
-            }
-            double tempAnomaly = anomalyCopy[i];
-            int tempIndex = indices[i];
-            anomalyCopy[i] = anomalyCopy[maxElementIndex];
-            anomalyCopy[maxElementIndex] = tempAnomaly;
-            indices[i] = indices[maxElementIndex];
-            indices[maxElementIndex] = tempIndex;
-        }
-        System.out.println("EIF effective threshold: " + anomalyCopy[n-1]);
-        for (int i = 0; i < n; i++) {
-            outliers.add(indices[i]);
-        }
-        
         return outliers;
     }
     
-    private void generateTrees() {
-        //selection without replacement, as per paper
-        if (sampleSize * treeCount < dataset.length) {
-            List<Integer> indices = new ArrayList<>(dataset.length);
-            for (int i = 0; i < dataset.length; i++) {
-                indices.add(i);
+    //returns the indices of the top N outliers and their scores, highest score first
+    public Pair<int[], double[]> getTopOutliers(int n) {
+        getModel();
+        if (!scored) {
+            long start = metrics == null ? 0 : System.nanoTime();
+            Pair<int[], double[]> top = new AdaptiveScorer(model, fittedRule).top(dataset, n);
+            if (metrics != null) {
+                metrics.phaseCompleted("score.adaptive", System.nanoTime() - start);
             }
-            Collections.shuffle(indices);
-            for(int i = 0; i < treeCount; i++) {
-                List<Integer> sample = new ArrayList<>(sampleSize);
-                for (int j = 0; j < sampleSize; j++) {
-                    sample.add(indices.get(i * sampleSize + j));
-                }
-                //trees[i] = new IsolationTree(dataset, new ArrayList<Integer>(sample), heightLimit);
-                trees[i] = new IsolationTree(dataset, sample, heightLimit, splitOnProximity);
+            return top;
+        }
+        return TopN.select(anomalyScores, n);
+    }
+    
+    private IsolationTree[] generateTrees() {
+        IsolationTree[] trees = new IsolationTree[treeCount];
+        //selection without replacement, as per paper. when the dataset is big enough
+        //the trees get disjoint slices of one partly shuffled permutation
+        final int[] indices;
+        if ((long) sampleSize * treeCount <= dataset.size()) {
+            indices = new int[dataset.size()];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = i;
             }
+            //tree numbers start at 0, so the shuffle takes -1
+            new Sampler(treeSeed(seed, -1)).shuffle(indices, sampleSize * treeCount);
         } else {
-            //selection with replacement if dataset isnt big enough
-            for(int i = 0; i < treeCount; i++) {
-                Set<Integer> sampleSet = new HashSet<>(sampleSize);
-                while (sampleSet.size() < sampleSize) {
-                    sampleSet.add((int)(Math.random() * dataset.length));
-                }
-                List<Integer> sample = new ArrayList<>(sampleSet);
-                trees[i] = new IsolationTree(dataset, sample, heightLimit, splitOnProximity);
+            indices = null;
+        }
+        
+        //trees are independent, so build them concurrently. each one only touches its own slot
+        runBlocks(treeCount, 1, (i, end) -> {
+            long start = metrics == null ? 0 : System.nanoTime();
+            Sampler random = new Sampler(treeSeed(seed, i));
+            int[] sample = new int[sampleSize];
+            if (indices != null) {
+                System.arraycopy(indices, i * sampleSize, sample, 0, sampleSize);
+            } else {
+                //otherwise every tree samples on its own, so trees may share points
+                random.sample(dataset.size(), sample);
+            }
+            trees[i] = new IsolationTree(dataset, sample, heightLimit, splitOnProximity,
+                    extensionLevel, proximityFraction, random);
+            if (metrics != null) {
+                metrics.treeBuilt(trees[i], System.nanoTime() - start);
             }
+        });
+        return trees;
+    }
+    
+    //runs [0, count) in blocks on the forest's pool, see ParallelBlocks
+    private void runBlocks(int count, int blockSize, ParallelBlocks.Block block) {
+        if (parallelism > 1 && count > blockSize && pool == null) {
+            pool = new ForkJoinPool(parallelism);
         }
+        ParallelBlocks.run(parallelism == 1 ? null : pool, count, blockSize, block);
+    }
+    
+    //seed of one tree's sampler, from the forest seed and tree number
+    static long treeSeed(long seed, long tree) {
+        return Sampler.seedFor(seed, tree);
     }
     
     //runThroughTrees //float[]
     private void calculateAnomalyScores() {
-        double avgScore = 0;
-        for (int i = 0; i < dataset.length; i++) {
-            double pathLengthSum = 0;
-            for (int j = 0; j < trees.length; j++) {
-                pathLengthSum += trees[j].getPathLength(dataset[i]);
-            }
-            //if (i % 100 == 0)
-            //    System.out.print("Point depth: " + trees[0].getPathLength(dataset[i]));
-            //anomaly score of element x: s(x,n) = 2^-(E(h(x))/c(n))
-            //for h(x) being the path length to an element
-            anomalyScores[i] = Math.pow(2, -((pathLengthSum / treeCount) / avgPathLength));
-            avgScore += anomalyScores[i];
-            //if (i % 100 == 0)
-            //    System.out.println(" Score: " + anomalyScores[i]);
+        //anomaly score of element x: s(x,n) = 2^-(E(h(x))/c(n))
+        //for h(x) being the path length to an element
+        long start = metrics == null ? 0 : System.nanoTime();
+        runBlocks(dataset.size(), SCORE_BLOCK_SIZE,
+                (from, to) -> model.scoreBatch(dataset, from, to, anomalyScores));
+        scored = true;
+        if (metrics != null) {
+            long nanos = System.nanoTime() - start;
+            metrics.pointsScored(dataset.size(), nanos);
+            metrics.phaseCompleted("score", nanos);
         }
-        //System.out.println("EIF average anomaly score: " + avgScore / dataset.length);
     }
-    
-    
 }
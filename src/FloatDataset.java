@@ -0,0 +1,96 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * An off-heap Dataset that stores every value as a 32-bit float, row after row, at half
+ * the memory and bandwidth of doubles.
+ *
+ * Each value is rounded to the nearest float, a relative error of at most 2^-24
+ * (about 6e-8). Arithmetic on the values is still done in double precision. With the
+ * same seed, anomaly scores differ from the double-precision ones only where a point lies
+ * within that rounding error of a split, so rankings are practically unchanged.
+ */
+public class FloatDataset extends EncodedDataset {
+    //largest number of floats put in one direct buffer
+    private static final int MAX_CHUNK_ELEMENTS = 1 << 28;
+
+    private final int rows;
+    private final int dimensions;
+    //whole rows per buffer, so no row straddles two buffers
+    private final int rowsPerChunk;
+    private final FloatBuffer[] chunks;
+
+    //allocates a zero filled dataset, to be filled with set
+    public FloatDataset(int rows, int dimensions) {
+        if (rows < 1 || dimensions < 1) {
+            throw new IllegalArgumentException("Dataset must have at least one row and column.");
+        }
+        this.rows = rows;
+        this.dimensions = dimensions;
+        this.rowsPerChunk = Math.max(1, MAX_CHUNK_ELEMENTS / dimensions);
+        int chunkCount = (rows + rowsPerChunk - 1) / rowsPerChunk;
+        chunks = new FloatBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            int chunkRows = Math.min(rowsPerChunk, rows - i * rowsPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(chunkRows * dimensions * Float.BYTES)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
+
+    public static FloatDataset copyOf(Dataset data) {
+        FloatDataset dataset = new FloatDataset(data.size(), data.dimensions());
+        double[] row = new double[data.dimensions()];
+        for (int i = 0; i < data.size(); i++) {
+            data.copyRow(i, row);
+            for (int j = 0; j < row.length; j++) {
+                dataset.set(i, j, row[j]);
+            }
+        }
+        return dataset;
+    }
+
+    public static FloatDataset copyOf(double[][] data) {
+        return copyOf(new ArrayDataset(data));
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public void set(int row, int column, double value) {
+        chunks[row / rowsPerChunk].put((row % rowsPerChunk) * dimensions + column, (float) value);
+    }
+
+    @Override
+    double decode(int row, int column) {
+        return chunks[row / rowsPerChunk].get((row % rowsPerChunk) * dimensions + column);
+    }
+
+    @Override
+    public void copyRow(int row, double[] buffer) {
+        FloatBuffer chunk = chunks[row / rowsPerChunk];
+        int start = (row % rowsPerChunk) * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            buffer[i] = chunk.get(start + i);
+        }
+    }
+
+    @Override
+    public double squaredDistance(int row, double[] x) {
+        FloatBuffer chunk = chunks[row / rowsPerChunk];
+        int start = (row % rowsPerChunk) * dimensions;
+        double distance = 0;
+        for (int i = 0; i < dimensions; i++) {
+            double difference = chunk.get(start + i) - x[i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+}
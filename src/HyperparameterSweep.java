@@ -0,0 +1,297 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.math3.distribution.TDistribution;
+
+/**
+ * Evaluates a grid of forest configurations on several datasets, each with many seeded
+ * repetitions, and reports AUC statistics per dataset and configuration.
+ *
+ * Every dataset is loaded once and shared read-only by all trials. The trials run
+ * concurrently, one forest per thread. Repetition r of every configuration uses the same
+ * seed, so configurations are compared on the same random draws, and a sweep with the
+ * same seed gives the same results regardless of the parallelism.
+ *
+ * With a LOF k above 0, a trial scores like EIF_LOF: the top candidateFraction of the
+ * points by isolation score are ranked above all others, by their local outlier factor.
+ * LOF values do not depend on the seed, so each thread keeps the neighbors and densities
+ * it has computed for a dataset and k, and reuses them in its later trials. The neighbor
+ * index of a dataset is built once and shared by every thread.
+ */
+public class HyperparameterSweep {
+
+    //one point of the grid
+    public static class Configuration {
+        public final int treeCount;
+        public final int sampleSize;
+        public final boolean splitOnProximity;
+        //NaN for hyperplane splits, where it has no effect
+        public final double proximityFraction;
+        //0 for isolation scores alone
+        public final int lofK;
+
+        public Configuration(int treeCount, int sampleSize, boolean splitOnProximity,
+                double proximityFraction, int lofK) {
+            this.treeCount = treeCount;
+            this.sampleSize = sampleSize;
+            this.splitOnProximity = splitOnProximity;
+            this.proximityFraction = proximityFraction;
+            this.lofK = lofK;
+        }
+
+        @Override
+        public String toString() {
+            return "trees=" + treeCount + " sample=" + sampleSize
+                    + (splitOnProximity ? " proximity=" + proximityFraction : " hyperplane")
+                    + (lofK > 0 ? " lofK=" + lofK : "");
+        }
+    }
+
+    //auc statistics of one configuration on one dataset
+    public static class Result {
+        public final String dataset;
+        public final Configuration configuration;
+        //auc of every repetition, in repetition order
+        public final double[] aucs;
+        public final double mean;
+        public final double min;
+        public final double max;
+        public final double standardDeviation;
+        //bounds of the confidence interval of the mean
+        public final double lower;
+        public final double upper;
+
+        Result(String dataset, Configuration configuration, double[] aucs, double confidence) {
+            this.dataset = dataset;
+            this.configuration = configuration;
+            this.aucs = aucs;
+            double sum = 0, min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (double auc : aucs) {
+                sum += auc;
+                min = Math.min(min, auc);
+                max = Math.max(max, auc);
+            }
+            this.mean = sum / aucs.length;
+            this.min = min;
+            this.max = max;
+            double squares = 0;
+            for (double auc : aucs) {
+                squares += (auc - mean) * (auc - mean);
+            }
+            if (aucs.length > 1) {
+                this.standardDeviation = Math.sqrt(squares / (aucs.length - 1));
+                //student t interval, since repetitions are few
+                double t = new TDistribution(aucs.length - 1)
+                        .inverseCumulativeProbability(1 - (1 - confidence) / 2);
+                double halfWidth = t * standardDeviation / Math.sqrt(aucs.length);
+                this.lower = mean - halfWidth;
+                this.upper = mean + halfWidth;
+            } else {
+                this.standardDeviation = 0;
+                this.lower = mean;
+                this.upper = mean;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s: mean %.4f min %.4f max %.4f ci [%.4f, %.4f] (%d runs)",
+                    dataset, configuration, mean, min, max, lower, upper, aucs.length);
+        }
+    }
+
+    private final List<String> datasetNames = new ArrayList<>();
+    private final List<Pair<double[][], int[]>> datasets = new ArrayList<>();
+    private int[] treeCounts = {100};
+    private int[] sampleSizes = {256};
+    private boolean[] splitModes = {false, true};
+    private double[] proximityFractions = {IsolationTree.DEFAULT_PROXIMITY_FRACTION};
+    private int[] lofKs = {0};
+    private int repetitions = 10;
+    private double candidateFraction = .1;
+    private double confidence = .95;
+    private long seed = 0;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    //lof engines per dataset and k. an engine is not safe for concurrent use, so every
+    //thread has its own, over neighbor indices shared by all of them
+    private final ThreadLocal<Map<Long, LocalOutlierFactor>> lofEngines =
+            ThreadLocal.withInitial(HashMap::new);
+    private final Map<Integer, NeighborIndex> neighborIndices = new HashMap<>();
+
+    public void addDataset(String name, Pair<double[][], int[]> data) {
+        datasetNames.add(name);
+        datasets.add(data);
+    }
+
+    public void setTreeCounts(int... treeCounts) {
+        this.treeCounts = treeCounts.clone();
+    }
+
+    public void setSampleSizes(int... sampleSizes) {
+        this.sampleSizes = sampleSizes.clone();
+    }
+
+    public void setSplitModes(boolean... splitOnProximity) {
+        this.splitModes = splitOnProximity.clone();
+    }
+
+    public void setProximityFractions(double... proximityFractions) {
+        for (double fraction : proximityFractions) {
+            if (!(fraction > 0 && fraction < 1)) {
+                throw new IllegalArgumentException("Proximity fraction must be between 0 and 1.");
+            }
+        }
+        this.proximityFractions = proximityFractions.clone();
+    }
+
+    //0 evaluates the isolation scores alone
+    public void setLofKs(int... lofKs) {
+        for (int k : lofKs) {
+            if (k < 0) {
+                throw new IllegalArgumentException("LOF k must not be negative.");
+            }
+        }
+        this.lofKs = lofKs.clone();
+    }
+
+    public void setRepetitions(int repetitions) {
+        if (repetitions < 1) {
+            throw new IllegalArgumentException("Repetitions must be at least 1.");
+        }
+        this.repetitions = repetitions;
+    }
+
+    //share of the points, by isolation score, that lof reranks
+    public void setCandidateFraction(double candidateFraction) {
+        if (!(candidateFraction > 0 && candidateFraction <= 1)) {
+            throw new IllegalArgumentException("Candidate fraction must be in (0, 1].");
+        }
+        this.candidateFraction = candidateFraction;
+    }
+
+    //level of the confidence intervals, .95 by default
+    public void setConfidence(double confidence) {
+        if (!(confidence > 0 && confidence < 1)) {
+            throw new IllegalArgumentException("Confidence must be between 0 and 1.");
+        }
+        this.confidence = confidence;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    //number of trials run at once
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    //every configuration of the grid. proximity fractions are only varied for proximity splits
+    public List<Configuration> getConfigurations() {
+        List<Configuration> configurations = new ArrayList<>();
+        for (int treeCount : treeCounts) {
+            for (int sampleSize : sampleSizes) {
+                for (boolean splitOnProximity : splitModes) {
+                    double[] fractions = splitOnProximity ? proximityFractions : new double[] {Double.NaN};
+                    for (double fraction : fractions) {
+                        for (int lofK : lofKs) {
+                            configurations.add(new Configuration(treeCount, sampleSize,
+                                    splitOnProximity, fraction, lofK));
+                        }
+                    }
+                }
+            }
+        }
+        return configurations;
+    }
+
+    /**
+     * Runs every repetition of every configuration on every dataset and returns one
+     * result per dataset and configuration, datasets in the order they were added and
+     * configurations in grid order.
+     */
+    public List<Result> run() {
+        List<Configuration> configurations = getConfigurations();
+        double[][][] aucs = new double[datasets.size()][configurations.size()][repetitions];
+        //trial t is repetition t % repetitions of configuration t / repetitions % configurations
+        //of dataset t / (repetitions * configurations)
+        int perDataset = configurations.size() * repetitions;
+        ForkJoinPool pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+        try {
+            ParallelBlocks.run(pool, datasets.size() * perDataset, 1, (t, end) -> {
+                int dataset = t / perDataset;
+                int configuration = t % perDataset / repetitions;
+                int repetition = t % repetitions;
+                aucs[dataset][configuration][repetition] = runTrial(dataset,
+                        configurations.get(configuration),
+                        ExtendedIsolationForest.treeSeed(seed, repetition));
+            });
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+
+        List<Result> results = new ArrayList<>(datasets.size() * configurations.size());
+        for (int d = 0; d < datasets.size(); d++) {
+            for (int c = 0; c < configurations.size(); c++) {
+                results.add(new Result(datasetNames.get(d), configurations.get(c), aucs[d][c], confidence));
+            }
+        }
+        return results;
+    }
+
+    private double runTrial(int datasetIndex, Configuration configuration, long trialSeed) {
+        Pair<double[][], int[]> data = datasets.get(datasetIndex);
+        int n = data.l.length;
+        ExtendedIsolationForest forest = new ExtendedIsolationForest(data.l, configuration.treeCount,
+                Math.min(configuration.sampleSize, n), configuration.splitOnProximity);
+        forest.setSeed(trialSeed);
+        //trials already keep every thread busy
+        forest.setParallelism(1);
+        if (configuration.splitOnProximity) {
+            forest.setProximityFraction(configuration.proximityFraction);
+        }
+        double[] scores = forest.getAnomalyScores();
+
+        if (configuration.lofK > 0) {
+            int[] candidates = TopN.select(scores, (int) Math.ceil(n * candidateFraction)).l;
+            double[] lof = getLofEngine(datasetIndex, configuration.lofK).score(candidates);
+            //isolation scores are at most 1, so candidates rank above everything else.
+            //duplicates can make lof 0/0; those points are as dense as their neighbors
+            for (int i = 0; i < candidates.length; i++) {
+                scores[candidates[i]] = 1 + (Double.isNaN(lof[i]) ? 1 : lof[i]);
+            }
+        }
+        return new RocCurve(scores, data.r).getAUC();
+    }
+
+    //this thread's engine for the dataset and k
+    private LocalOutlierFactor getLofEngine(int datasetIndex, int k) {
+        Map<Long, LocalOutlierFactor> engines = lofEngines.get();
+        long key = ((long) datasetIndex << 32) | k;
+        LocalOutlierFactor engine = engines.get(key);
+        if (engine == null) {
+            engine = new LocalOutlierFactor(getNeighborIndex(datasetIndex),
+                    datasets.get(datasetIndex).l.length, k);
+            engines.put(key, engine);
+        }
+        return engine;
+    }
+
+    private synchronized NeighborIndex getNeighborIndex(int datasetIndex) {
+        NeighborIndex index = neighborIndices.get(datasetIndex);
+        if (index == null) {
+            index = NeighborIndex.build(new ArrayDataset(datasets.get(datasetIndex).l));
+            neighborIndices.put(datasetIndex, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,225 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A fitted forest, separated from the data it was fitted on. It can score any point
+ * with the right number of dimensions.
+ *
+ * Models are immutable: the trees are never modified after they are built and every
+ * field is final, so one model can be shared by any number of scoring threads without
+ * locking. ExtendedIsolationForest.fit creates them, and save/load move them between
+ * processes.
+ */
+public class IsolationForestModel {
+    //model file header: "EIF" followed by a format version byte
+    private static final int MODEL_MAGIC = 0x45494600;
+    private static final int MODEL_VERSION = 1;
+    //rows pushed down the trees together by scoreBatch. their values stay in cache
+    //while every level of a tree reads them
+    private static final int BULK_ROWS = 256;
+
+    private final IsolationTree[] trees;
+    private final int sampleSize;
+    private final int heightLimit;
+    private final int dimensions;
+    private final int extensionLevel;
+    private final boolean splitOnProximity;
+    private final long seed;
+    //c(sampleSize), the average path length scores are normalized by
+    private final double avgPathLength;
+
+    IsolationForestModel(IsolationTree[] trees, int sampleSize, int heightLimit, int dimensions,
+            int extensionLevel, boolean splitOnProximity, long seed) {
+        this.trees = trees.clone();
+        this.sampleSize = sampleSize;
+        this.heightLimit = heightLimit;
+        this.dimensions = dimensions;
+        this.extensionLevel = extensionLevel;
+        this.splitOnProximity = splitOnProximity;
+        this.seed = seed;
+        this.avgPathLength = ExtendedIsolationForest.getAvgPathLength(sampleSize);
+    }
+
+    //anomaly score of x: s(x,n) = 2^-(E(h(x))/c(n))
+    public double score(double[] x) {
+        if (x.length != dimensions) {
+            throw new IllegalArgumentException("Model expects " + dimensions
+                    + " dimensions but the point has " + x.length + ".");
+        }
+        return pathLengthSumToScore(getPathLengthSum(x));
+    }
+
+    //scores every point into out, on the calling thread
+    public void scoreBatch(double[][] points, double[] out) {
+        if (out.length < points.length) {
+            throw new IllegalArgumentException("Output array is shorter than the batch.");
+        }
+        scoreBatch(points, 0, points.length, out);
+    }
+
+    //scores points[from, to) into out[from, to)
+    public void scoreBatch(double[][] points, int from, int to, double[] out) {
+        if (from < to) {
+            scoreBatch(new ArrayDataset(points), from, to, out);
+        }
+    }
+
+    /**
+     * Scores rows [from, to) of a dataset into out[from, to). The trees test their
+     * hyperplanes directly against the dataset's storage, whatever its precision.
+     *
+     * Rows are scored BULK_ROWS at a time, and each group is pushed down every tree in
+     * one pass (see IsolationTree.addPathLengths), with out holding the running sums.
+     * Trees are added in order, so the scores are the same as scoring row by row.
+     */
+    public void scoreBatch(Dataset data, int from, int to, double[] out) {
+        if (data.dimensions() != dimensions) {
+            throw new IllegalArgumentException("Model expects " + dimensions
+                    + " dimensions but the dataset has " + data.dimensions() + ".");
+        }
+        if (from >= to) {
+            return;
+        }
+        int[] rows = new int[Math.min(BULK_ROWS, to - from)];
+        double[] dots = new double[rows.length];
+        for (int start = from; start < to; start += BULK_ROWS) {
+            int count = Math.min(BULK_ROWS, to - start);
+            for (int i = 0; i < count; i++) {
+                rows[i] = start + i;
+                out[start + i] = 0;
+            }
+            //each tree leaves the rows in some order, which is as good a start as any
+            for (IsolationTree tree : trees) {
+                tree.addPathLengths(data, rows, 0, count, out, dots);
+            }
+            for (int i = start; i < start + count; i++) {
+                out[i] = pathLengthSumToScore(out[i]);
+            }
+        }
+    }
+
+    //sum of the path lengths of x over all trees, in tree order
+    double getPathLengthSum(double[] x) {
+        double pathLengthSum = 0;
+        for (int j = 0; j < trees.length; j++) {
+            pathLengthSum += trees[j].getPathLength(x);
+        }
+        return pathLengthSum;
+    }
+
+    double pathLengthSumToScore(double pathLengthSum) {
+        return Math.pow(2, -((pathLengthSum / trees.length) / avgPathLength));
+    }
+
+    //c(sampleSize), see pathLengthSumToScore
+    double getAvgPathLength() {
+        return avgPathLength;
+    }
+
+    //the trees themselves, for building a new model from some of them
+    IsolationTree[] getTrees() {
+        return trees;
+    }
+
+    public int getTreeCount() {
+        return trees.length;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public int getHeightLimit() {
+        return heightLimit;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    public int getExtensionLevel() {
+        return extensionLevel;
+    }
+
+    public boolean isSplitOnProximity() {
+        return splitOnProximity;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Writes the model in a compact binary format: a header (magic and version, tree
+     * count, sample size, height limit, dimensions, extension level, split kind and seed)
+     * followed by every tree's compiled arrays. All values are big endian.
+     */
+    public void save(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(path)), 1 << 16))) {
+            out.writeInt(MODEL_MAGIC | MODEL_VERSION);
+            out.writeInt(trees.length);
+            out.writeInt(sampleSize);
+            out.writeInt(heightLimit);
+            out.writeInt(dimensions);
+            out.writeInt(extensionLevel);
+            out.writeBoolean(splitOnProximity);
+            out.writeLong(seed);
+            for (IsolationTree tree : trees) {
+                tree.write(out);
+            }
+        }
+    }
+
+    /**
+     * Loads a model written by save. The file is memory mapped and every tree's arrays are
+     * bulk copied out of the mapping into the heap, without per-node objects, so loading
+     * takes one pass over the bytes and grows with the size of the model. A truncated file
+     * is reported as an IOException.
+     */
+    public static IsolationForestModel load(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(in, path);
+        } catch (BufferUnderflowException e) {
+            throw new IOException(path + " is truncated.", e);
+        }
+    }
+
+    private static IsolationForestModel read(ByteBuffer in, String path) throws IOException {
+        int header = in.remaining() < Integer.BYTES ? 0 : in.getInt();
+        if ((header & ~0xFF) != MODEL_MAGIC) {
+            throw new IOException(path + " is not an isolation forest model file.");
+        }
+        int version = header & 0xFF;
+        if (version != MODEL_VERSION) {
+            throw new IOException("Unsupported model version " + version + " in " + path + ".");
+        }
+        int treeCount = in.getInt();
+        int sampleSize = in.getInt();
+        int heightLimit = in.getInt();
+        int dimensions = in.getInt();
+        int extensionLevel = in.getInt();
+        boolean splitOnProximity = in.get() != 0;
+        long seed = in.getLong();
+
+        //every tree starts with three ints, so a bigger count cannot be right
+        if (treeCount < 0 || treeCount > in.remaining() / (3 * Integer.BYTES)) {
+            throw new IOException(path + " is truncated.");
+        }
+        IsolationTree[] trees = new IsolationTree[treeCount];
+        for (int i = 0; i < treeCount; i++) {
+            trees[i] = IsolationTree.read(in, dimensions, extensionLevel, splitOnProximity);
+        }
+        return new IsolationForestModel(trees, sampleSize, heightLimit, dimensions,
+                extensionLevel, splitOnProximity, seed);
+    }
+}
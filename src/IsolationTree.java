@@ -1,197 +1,501 @@
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-
-import org.apache.commons.math3.distribution.NormalDistribution;
-import org.apache.commons.math3.distribution.UniformRealDistribution;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class IsolationTree {
 
-    private Node root;
-    private double[][] dataset;
+    private Dataset dataset;
     private int heightLimit;
     private boolean splitOnProximity;
+    private int dimensions;
+    //number of non-zero coefficients in every hyperplane normal, i.e. extension level + 1.
+    //when it equals dimensions the normals are dense and no dimension indices are stored
+    private int nonZero;
+    //all randomness of one tree comes from this generator, so a tree is reproducible from its seed
+    private Sampler random;
     
-    public IsolationTree(double[][] dataset, List<Integer> subset, int heightLimit,
-            boolean splitOnProximity) {
+    //fraction of a node's points, closest to its hyperplane, sent left in proximity mode
+    public static final double DEFAULT_PROXIMITY_FRACTION = .1; //hyperparameter
+    private double proximityFraction;
+    
+    //scratch space for building. the sample indices live in one buffer that is partitioned
+    //in place as the tree grows, like quicksort, so building allocates almost nothing
+    private int[] indexBuffer;
+    //dots of a node's points with its normal, turned into distances in proximity mode
+    private double[] dotBuffer;
+    private double[] rangeMin, rangeMax;
+    private int[] dimensionBuffer;
+    
+    //compiled layout, written directly by the builder so scoring walks primitive arrays.
+    //child references >= 0 are internal nodes, negative ones are ~leafIndex
+    private int root;
+    private int[] leftChild, rightChild;
+    //non-zero hyperplane coefficients of all internal nodes, packed nonZero per node,
+    //and the dimension each one applies to (null for dense normals)
+    private double[] normals;
+    private int[] normalDimensions;
+    //offset point dotted with the normal, and the norm of the normal
+    private double[] offsetDots;
+    private double[] norms;
+    private double[] nearDistances;
+    //depth + c(size) for every leaf
+    private double[] leafPathLengths;
+    private int internalCount, leafCount;
+    
+    //extensionLevel is the number of dimensions a hyperplane may tilt across, from 0
+    //(axis-parallel splits as in the original isolation forest) to dimensions - 1 (fully extended)
+    public IsolationTree(Dataset dataset, int[] subset, int heightLimit,
+            boolean splitOnProximity, int extensionLevel, Sampler random) {
+        this(dataset, subset, heightLimit, splitOnProximity, extensionLevel,
+                DEFAULT_PROXIMITY_FRACTION, random);
+    }
+    
+    //proximityFraction is the share of each node's points sent to the near side in proximity mode
+    public IsolationTree(Dataset dataset, int[] subset, int heightLimit, boolean splitOnProximity,
+            int extensionLevel, double proximityFraction, Sampler random) {
+        if (!(proximityFraction > 0 && proximityFraction < 1)) {
+            throw new IllegalArgumentException("Proximity fraction must be between 0 and 1.");
+        }
+        this.proximityFraction = proximityFraction;
         this.dataset = dataset;
         this.heightLimit = heightLimit;
         this.splitOnProximity = splitOnProximity;
-        root = new Node(dataset, subset, 0);
+        this.dimensions = dataset.dimensions();
+        if (extensionLevel < 0 || extensionLevel >= dimensions) {
+            throw new IllegalArgumentException("Extension level must be between 0 and "
+                    + (dimensions - 1) + ".");
+        }
+        this.nonZero = extensionLevel + 1;
+        this.random = random;
+        build(subset);
+        //the tree no longer needs the data it was built from
+        this.dataset = null;
+        this.random = null;
+    }
+    
+    //used by read, which fills in the compiled arrays directly
+    private IsolationTree(int dimensions, int nonZero, boolean splitOnProximity) {
+        this.dimensions = dimensions;
+        this.nonZero = nonZero;
+        this.splitOnProximity = splitOnProximity;
     }
     
     //not strictly path length; depth + number of elements in final node
     public double getPathLength(double[] x) {
-        double depth = 0;
-        Node current = root;
-        
-        while (current.left != null) { //children are either both null or both instantiated
-            if (splitOnProximity) {
-                if (current.isNearHyperplane(x)) {
-                    current = current.left;
-                } else {
-                    current = current.right;
-                }
-            } else {
-                if (current.isAboveHyperplane(x)) {
-                    current = current.left;
-                } else {
-                    current = current.right;
-                }
-            }
-            depth++;
+        int node = root;
+        while (node >= 0) {
+            node = goesLeft(node, dot(node, x)) ? leftChild[node] : rightChild[node];
         }
-        
-        return depth + ExtendedIsolationForest.getAvgPathLength(current.size);
-    }
-    
-    private class Node {
-        private Node left, right;
-        private double[] hyperplaneCoefficients;
-        private double[] hyperplaneOffset;
-        private int depth, size;
-        private double[][] dataset;
-        private double nearDistance;
-        //CHANGES:
-        //Node minimum size changed from 2
-        //Node element sort code changed
-        //getPathLength condition changed from isAboveHyperplane
-        //EIF max tree height changed
-        public Node(double[][] dataset, List<Integer> subset, int depth) {
-            this.depth = depth;
-            this.dataset = dataset;
-            this.size = subset.size();
-            //condition for being a leaf node
-            if (subset.size() < 2 || depth >= heightLimit) {
-                return;
+        return leafPathLengths[~node];
+    }
+    
+    //path length of a row of a dataset. the split tests read the row straight from the
+    //dataset's own storage, so compact stores are never expanded to doubles
+    public double getPathLength(Dataset data, int row) {
+        int node = root;
+        while (node >= 0) {
+            double dot = data.dot(row, normals, normalDimensions, node * nonZero, nonZero);
+            node = goesLeft(node, dot) ? leftChild[node] : rightChild[node];
+        }
+        return leafPathLengths[~node];
+    }
+    
+    /**
+     * Adds the path length of every row rows[from, to) of data to sums[row]. The rows go
+     * down the tree together, the way building partitions the sample: each node tests
+     * its hyperplane against all of its rows in one batch and splits them in place, so
+     * a node is visited once per call instead of once per row. Leaves the rows reordered.
+     * dots is scratch space as long as rows.
+     */
+    public void addPathLengths(Dataset data, int[] rows, int from, int to, double[] sums,
+            double[] dots) {
+        addPathLengths(root, data, rows, from, to, sums, dots);
+    }
+
+    private void addPathLengths(int node, Dataset data, int[] rows, int from, int to,
+            double[] sums, double[] dots) {
+        if (node < 0) {
+            double pathLength = leafPathLengths[~node];
+            for (int i = from; i < to; i++) {
+                sums[rows[i]] += pathLength;
             }
-            
-            //generate hyperplane
-            double[][] range = getRange(subset);
-            NormalDistribution n = new NormalDistribution(0, 1);
-            hyperplaneCoefficients = new double[dataset[0].length];
-            hyperplaneOffset = new double[dataset[0].length];
-            for (int i = 0; i < dataset[0].length; i++) {
-                hyperplaneCoefficients[i] = n.sample();
-                if (range[0][i] != range[1][i]) {
-                    UniformRealDistribution u = new UniformRealDistribution(range[0][i], range[1][i]);
-                    hyperplaneOffset[i] = u.sample();
-                } else {
-                    //System.out.println("Equivalent values when at size " + subset.size());
-                }
+            return;
+        }
+        data.dots(rows, from, to, normals, normalDimensions, node * nonZero, nonZero, dots);
+        //the same split test and partition as building
+        int middle = from;
+        for (int i = from; i < to; i++) {
+            if (goesLeft(node, dots[i])) {
+                int row = rows[i];
+                rows[i] = rows[middle];
+                rows[middle++] = row;
             }
-            
-            //sort data into left and right children
-            List<Integer> leftElements = new ArrayList<>();
-            List<Integer> rightElements = new ArrayList<>();
-            //begin change code
-            if (splitOnProximity) {
-                List<Pair<Integer, Double>> distances = new ArrayList<>();
-                for (Integer i : subset) {
-                    distances.add(new Pair<Integer, Double>(i, getDistToHyperplane(dataset[i])));
-                }
-                Collections.sort(distances, new Comparator<Pair<Integer, Double>>() {
-                    @Override
-                    public int compare(Pair<Integer, Double> arg0, Pair<Integer, Double> arg1) {
-                        if (arg0.r - arg1.r > 0) {
-                            return 1;
-                        } else if (arg0.r - arg1.r < 0) {
-                            return -1;
-                        } else {
-                            return 0;
-                        }
-                        //return  > 0 ? 1 : -1;
-                    }
-                });
-                double portionConsideredClose = .1; //hyperparameter
-                this.nearDistance = distances.get((int)(distances.size() * portionConsideredClose)).r;
-                for(int i = 0; i < distances.size(); i++) {
-                    if (i < portionConsideredClose * distances.size()) {
-                        leftElements.add(distances.get(i).l);
-                    } else {
-                        rightElements.add(distances.get(i).l);
-                    }
-                }
-                //end change code
-            } else {
-                for (Integer i : subset) {
-                    //for (int j = 0; j < dataset[0].length; j++) { //why tf did i do this
-                        if (isAboveHyperplane(dataset[i])) {
-                            leftElements.add(i);
-                        } else {
-                            rightElements.add(i);
-                        }
-                    //}
-                }
+        }
+        if (from < middle) {
+            addPathLengths(leftChild[node], data, rows, from, middle, sums, dots);
+        }
+        if (middle < to) {
+            addPathLengths(rightChild[node], data, rows, middle, to, sums, dots);
+        }
+    }
+
+    public int getInternalCount() {
+        return internalCount;
+    }
+    
+    public int getLeafCount() {
+        return leafCount;
+    }
+    
+    //number of leaves at each depth, indexed by depth
+    public int[] getLeafDepthHistogram() {
+        int[] histogram = new int[internalCount + 1];
+        int maxDepth = countLeaves(root, 0, histogram);
+        return Arrays.copyOf(histogram, maxDepth + 1);
+    }
+    
+    //returns the deepest leaf depth under node
+    private int countLeaves(int node, int depth, int[] histogram) {
+        if (node < 0) {
+            histogram[depth]++;
+            return depth;
+        }
+        return Math.max(countLeaves(leftChild[node], depth + 1, histogram),
+                countLeaves(rightChild[node], depth + 1, histogram));
+    }
+    
+    //shortest and longest path length any point can get from this tree
+    public double getMinPathLength() {
+        double min = Double.POSITIVE_INFINITY;
+        for (double pathLength : leafPathLengths) {
+            min = Math.min(min, pathLength);
+        }
+        return min;
+    }
+    
+    public double getMaxPathLength() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double pathLength : leafPathLengths) {
+            max = Math.max(max, pathLength);
+        }
+        return max;
+    }
+    
+    //near distance of every internal node, or an empty array for hyperplane splits
+    public double[] getNearDistances() {
+        return splitOnProximity ? nearDistances.clone() : new double[0];
+    }
+    
+    //the split test of an internal node, given x * n. hyperplane splits use it while
+    //building too, so training points and scored points agree on ties. proximity splits
+    //are built by position instead, like the original nodes: the training point at the
+    //near distance itself can go left while building but goes right here
+    private boolean goesLeft(int node, double dot) {
+        if (splitOnProximity) {
+            //near hyperplane: |x * n + p * n| / |n| < nearDistance
+            return getDistToHyperplane(node, dot) < nearDistances[node];
+        } else {
+            //above hyperplane: (x - p) * n > 0, i.e. x * n - p * n > 0
+            //x is the input point. p is a point on the plane. n is the normal vector of the plane
+            return dot - offsetDots[node] > 0;
+        }
+    }
+    
+    private double getDistToHyperplane(int node, double dot) {
+        //|ax + by + ... + d| / |n|, with d = p * n
+        return Math.abs(dot + offsetDots[node]) / norms[node];
+    }
+    
+    //x * n for the normal of the given node. adds terms in the same order as Dataset.dot
+    private double dot(int node, double[] x) {
+        return DotKernel.PREFERRED.dot(x, normals, normalDimensions, node * nonZero, nonZero);
+    }
+    
+    private void build(int[] subset) {
+        indexBuffer = subset.clone();
+        dotBuffer = new double[subset.length];
+        rangeMin = new double[nonZero];
+        rangeMax = new double[nonZero];
+        if (nonZero < dimensions) {
+            dimensionBuffer = new int[dimensions];
+            for (int i = 0; i < dimensions; i++) {
+                dimensionBuffer[i] = i;
             }
-            left = new Node(dataset, leftElements, depth + 1);
-            right = new Node(dataset, rightElements, depth + 1);
         }
         
-        public boolean isAboveHyperplane(double[] x) {
-            //condition: (x - p) * n > 0
-            //x is the input point. p is a point on the plane. n is the normal vector of the plane
-            double result = 0;
-            for (int i = 0; i < dataset[0].length; i++) {
-                result += (x[i] - hyperplaneOffset[i]) * hyperplaneCoefficients[i];
+        //a tree of height h has at most 2^h - 1 internal nodes, but usually far fewer
+        int capacity = (int) Math.min(Math.max(subset.length, 1), (1L << Math.min(heightLimit, 30)) - 1);
+        leftChild = new int[capacity];
+        rightChild = new int[capacity];
+        normals = new double[capacity * nonZero];
+        normalDimensions = nonZero == dimensions ? null : new int[capacity * nonZero];
+        offsetDots = new double[capacity];
+        norms = new double[capacity];
+        nearDistances = new double[capacity];
+        leafPathLengths = new double[capacity + 1];
+        
+        root = buildNode(0, subset.length, 0);
+        
+        //trim to the nodes actually used
+        leftChild = Arrays.copyOf(leftChild, internalCount);
+        rightChild = Arrays.copyOf(rightChild, internalCount);
+        normals = Arrays.copyOf(normals, internalCount * nonZero);
+        if (normalDimensions != null) {
+            normalDimensions = Arrays.copyOf(normalDimensions, internalCount * nonZero);
+        }
+        offsetDots = Arrays.copyOf(offsetDots, internalCount);
+        norms = Arrays.copyOf(norms, internalCount);
+        nearDistances = Arrays.copyOf(nearDistances, internalCount);
+        leafPathLengths = Arrays.copyOf(leafPathLengths, leafCount);
+        indexBuffer = null;
+        dotBuffer = null;
+        rangeMin = null;
+        rangeMax = null;
+        dimensionBuffer = null;
+    }
+    
+    //builds the node holding indexBuffer[from, to) and returns its reference.
+    //nodes are numbered in preorder, so a parent sits right before its left subtree in memory
+    //CHANGES:
+    //Node minimum size changed from 2
+    //Node element sort code changed
+    //getPathLength condition changed from isAboveHyperplane
+    //EIF max tree height changed
+    private int buildNode(int from, int to, int depth) {
+        int size = to - from;
+        //condition for being a leaf node
+        if (size < 2 || depth >= heightLimit) {
+            if (leafCount == leafPathLengths.length) {
+                leafPathLengths = Arrays.copyOf(leafPathLengths, leafCount * 2);
             }
-            return result > 0 ? true : false;
+            leafPathLengths[leafCount] = depth + ExtendedIsolationForest.getAvgPathLength(size);
+            return ~leafCount++;
         }
         
-        public double getDistToHyperplane(double[] x) {
-            double numerator = 0;
-            for (int i = 0; i < dataset[0].length; i++) {
-                //calculates d
-                numerator += hyperplaneOffset[i] * hyperplaneCoefficients[i];
-                //ax + by + ...
-                numerator += x[i] * hyperplaneCoefficients[i];
+        int node = internalCount++;
+        if (node == leftChild.length) {
+            growNodes();
+        }
+        generateHyperplane(node, from, to);
+        
+        //sort data into left and right children, in place
+        dataset.dots(indexBuffer, from, to, normals, normalDimensions, node * nonZero, nonZero, dotBuffer);
+        int middle;
+        if (splitOnProximity) {
+            //the closest portion of the points go left. only the cut position matters,
+            //so select it instead of sorting every distance
+            for (int i = from; i < to; i++) {
+                dotBuffer[i] = getDistToHyperplane(node, dotBuffer[i]);
             }
-            numerator = Math.abs(numerator);
-            double denominator = 0;
-            for (int i = 0; i < dataset[0].length; i++) {
-                //calculates d
-                denominator += Math.pow(hyperplaneCoefficients[i], 2);
+            int cut = from + (int) (size * proximityFraction);
+            select(from, to, cut);
+            nearDistances[node] = dotBuffer[cut];
+            middle = from + (int) Math.ceil(size * proximityFraction);
+        } else {
+            //a point swapped back to i has been tested already, so dots need not move along
+            middle = from;
+            for (int i = from; i < to; i++) {
+                if (goesLeft(node, dotBuffer[i])) {
+                    swap(i, middle++);
+                }
             }
-            denominator = Math.sqrt(denominator);
-            
-            /*
-            double result = 0;
-            for (int i = 0; i < dataset[0].length; i++) {
-                result += (x[i] - hyperplaneOffset[i]) * hyperplaneCoefficients[i];
+        }
+        
+        leftChild[node] = buildNode(from, middle, depth + 1);
+        rightChild[node] = buildNode(middle, to, depth + 1);
+        return node;
+    }
+    
+    private void generateHyperplane(int node, int from, int to) {
+        int base = node * nonZero;
+        //pick the dimensions the hyperplane is allowed to tilt across with a partial
+        //fisher-yates shuffle. any permutation is a fine starting point, so the buffer
+        //is not reset between nodes
+        if (normalDimensions != null) {
+            for (int i = 0; i < nonZero; i++) {
+                int j = i + random.nextInt(dimensions - i);
+                int temp = dimensionBuffer[i];
+                dimensionBuffer[i] = dimensionBuffer[j];
+                dimensionBuffer[j] = temp;
+                normalDimensions[base + i] = dimensionBuffer[i];
             }
-            return Math.abs(result);
-            */
-            return numerator / denominator;
         }
         
-        public boolean isNearHyperplane(double[] x) {
-            return getDistToHyperplane(x) < nearDistance;
+        //min and max of the node's points for every dimension the hyperplane uses
+        Arrays.fill(rangeMin, Double.POSITIVE_INFINITY);
+        Arrays.fill(rangeMax, Double.NEGATIVE_INFINITY);
+        for (int i = from; i < to; i++) {
+            int row = indexBuffer[i];
+            for (int j = 0; j < nonZero; j++) {
+                double value = dataset.get(row, normalDimensions == null ? j : normalDimensions[base + j]);
+                if (value < rangeMin[j]) {
+                    rangeMin[j] = value;
+                }
+                if (value > rangeMax[j]) {
+                    rangeMax[j] = value;
+                }
+            }
         }
         
-        private double[][] getRange(List<Integer> subset) {
-            //min and max of subset of dataset for all dimensions
-            double[][] range = new double[2][dataset[0].length];
-            
-            //set initial values to the first element in subset
-            for (int i = 0; i < dataset[0].length; i++) {
-                range[0][i] = dataset[subset.get(0)][i];
-                range[1][i] = dataset[subset.get(0)][i];
+        //normal vector from a standard normal, point on the plane uniform within the range
+        double offsetDot = 0;
+        double norm = 0;
+        for (int i = 0; i < nonZero; i++) {
+            double coefficient = random.nextGaussian();
+            double offset = 0;
+            if (rangeMin[i] != rangeMax[i]) {
+                double u = random.nextDouble();
+                offset = u * rangeMax[i] + (1 - u) * rangeMin[i];
             }
-            
-            //walk through subset, remember min and max of each dimension
-            for (int i = 1; i < subset.size(); i++) {
-                for (int j = 0; j < dataset[0].length; j++) {
-                    if (dataset[subset.get(i)][j] < range[0][j]) {
-                        range[0][j] = dataset[subset.get(i)][j];
-                    }
-                    if (dataset[subset.get(i)][j] > range[1][j]) {
-                        range[1][j] = dataset[subset.get(i)][j];
-                    }
+            normals[base + i] = coefficient;
+            offsetDot += offset * coefficient;
+            norm += coefficient * coefficient;
+        }
+        offsetDots[node] = offsetDot;
+        norms[node] = Math.sqrt(norm);
+    }
+    
+    private void growNodes() {
+        int capacity = leftChild.length * 2;
+        leftChild = Arrays.copyOf(leftChild, capacity);
+        rightChild = Arrays.copyOf(rightChild, capacity);
+        normals = Arrays.copyOf(normals, capacity * nonZero);
+        if (normalDimensions != null) {
+            normalDimensions = Arrays.copyOf(normalDimensions, capacity * nonZero);
+        }
+        offsetDots = Arrays.copyOf(offsetDots, capacity);
+        norms = Arrays.copyOf(norms, capacity);
+        nearDistances = Arrays.copyOf(nearDistances, capacity);
+    }
+    
+    //quickselect over dotBuffer[from, to), carrying indexBuffer along. afterwards
+    //position k holds the distance it would have if sorted, smaller ones before it and
+    //larger ones after. uses a three-way partition since duplicate points are common
+    private void select(int from, int to, int k) {
+        int low = from;
+        int high = to - 1;
+        while (low < high) {
+            double pivot = medianOfThree(low, (low + high) >>> 1, high);
+            int lt = low, i = low, gt = high;
+            while (i <= gt) {
+                if (dotBuffer[i] < pivot) {
+                    swap(lt++, i++);
+                } else if (dotBuffer[i] > pivot) {
+                    swap(i, gt--);
+                } else {
+                    i++;
                 }
             }
-            
-            return range;
+            if (k < lt) {
+                high = lt - 1;
+            } else if (k > gt) {
+                low = gt + 1;
+            } else {
+                return;
+            }
+        }
+    }
+    
+    private double medianOfThree(int a, int b, int c) {
+        double x = dotBuffer[a], y = dotBuffer[b], z = dotBuffer[c];
+        if (x < y) {
+            return y < z ? y : (x < z ? z : x);
+        } else {
+            return x < z ? x : (y < z ? z : y);
         }
     }
+    
+    private void swap(int a, int b) {
+        int index = indexBuffer[a];
+        indexBuffer[a] = indexBuffer[b];
+        indexBuffer[b] = index;
+        if (splitOnProximity) {
+            double distance = dotBuffer[a];
+            dotBuffer[a] = dotBuffer[b];
+            dotBuffer[b] = distance;
+        }
+    }
+    
+    //writes the compiled arrays. the forest writes the parameters shared by all trees
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(root);
+        out.writeInt(internalCount);
+        out.writeInt(leafCount);
+        writeInts(out, leftChild);
+        writeInts(out, rightChild);
+        writeDoubles(out, normals);
+        if (normalDimensions != null) {
+            writeInts(out, normalDimensions);
+        }
+        writeDoubles(out, offsetDots);
+        writeDoubles(out, norms);
+        if (splitOnProximity) {
+            writeDoubles(out, nearDistances);
+        }
+        writeDoubles(out, leafPathLengths);
+    }
+    
+    //reads a tree written by write, advancing the buffer past it. the arrays are bulk
+    //copied out of the buffer, so no per-node objects are created. throws
+    //BufferUnderflowException, before allocating anything, if the buffer is too short
+    public static IsolationTree read(ByteBuffer in, int dimensions, int extensionLevel,
+            boolean splitOnProximity) {
+        IsolationTree tree = new IsolationTree(dimensions, extensionLevel + 1, splitOnProximity);
+        tree.root = in.getInt();
+        tree.internalCount = in.getInt();
+        tree.leafCount = in.getInt();
+        int internalCount = tree.internalCount;
+        //child arrays, normals, dimensions, offset dots, norms, near distances, leaves
+        long bytes = 2L * internalCount * Integer.BYTES
+                + (long) internalCount * tree.nonZero * Double.BYTES
+                + (tree.nonZero < dimensions ? (long) internalCount * tree.nonZero * Integer.BYTES : 0)
+                + (splitOnProximity ? 3L : 2L) * internalCount * Double.BYTES
+                + (long) tree.leafCount * Double.BYTES;
+        if (internalCount < 0 || tree.leafCount < 0 || bytes > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        tree.leftChild = readInts(in, internalCount);
+        tree.rightChild = readInts(in, internalCount);
+        tree.normals = readDoubles(in, internalCount * tree.nonZero);
+        if (tree.nonZero < dimensions) {
+            tree.normalDimensions = readInts(in, internalCount * tree.nonZero);
+        }
+        tree.offsetDots = readDoubles(in, internalCount);
+        tree.norms = readDoubles(in, internalCount);
+        if (splitOnProximity) {
+            tree.nearDistances = readDoubles(in, internalCount);
+        } else {
+            tree.nearDistances = new double[internalCount];
+        }
+        tree.leafPathLengths = readDoubles(in, tree.leafCount);
+        return tree;
+    }
+    
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+    
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+    
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * Integer.BYTES);
+        return values;
+    }
+    
+    private static double[] readDoubles(ByteBuffer in, int count) {
+        double[] values = new double[count];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + count * Double.BYTES);
+        return values;
+    }
 }
@@ -0,0 +1,155 @@
+/**
+ * Exact k-nearest-neighbour queries with a kd-tree over the rows of a dataset.
+ *
+ * The tree is implicit in a permutation of the row indices: every range of more than
+ * LEAF_SIZE rows is split at its middle position on the dimension with the widest spread,
+ * with rows below the median value before the middle and rows above it after. A query
+ * descends to the side of each split that holds the point first and only visits the
+ * other side when the splitting plane is no farther than the current k-th neighbour, so
+ * in low dimensions it looks at a small part of the data instead of every row.
+ */
+public class KdTree implements NeighborIndex {
+    private static final int LEAF_SIZE = 16;
+
+    private final Dataset dataset;
+    //row indices, ordered so that every subtree is a contiguous range
+    private final int[] rows;
+    //split of the range whose middle position is i, unused for leaf ranges
+    private final int[] splitDimensions;
+    private final double[] splitValues;
+    //values of the dimension being split on, only needed while building
+    private double[] valueBuffer;
+
+    public KdTree(Dataset dataset) {
+        this.dataset = dataset;
+        int n = dataset.size();
+        rows = new int[n];
+        for (int i = 0; i < n; i++) {
+            rows[i] = i;
+        }
+        splitDimensions = new int[n];
+        splitValues = new double[n];
+        valueBuffer = new double[n];
+        build(0, n);
+        valueBuffer = null;
+    }
+
+    private void build(int from, int to) {
+        if (to - from <= LEAF_SIZE) {
+            return;
+        }
+        int dimension = widestDimension(from, to);
+        for (int i = from; i < to; i++) {
+            valueBuffer[i] = dataset.get(rows[i], dimension);
+        }
+        int middle = (from + to) >>> 1;
+        select(from, to, middle);
+        splitDimensions[middle] = dimension;
+        splitValues[middle] = valueBuffer[middle];
+        build(from, middle);
+        build(middle, to);
+    }
+
+    private int widestDimension(int from, int to) {
+        int dimensions = dataset.dimensions();
+        double[] min = new double[dimensions];
+        double[] max = new double[dimensions];
+        double[] point = new double[dimensions];
+        dataset.copyRow(rows[from], min);
+        dataset.copyRow(rows[from], max);
+        for (int i = from + 1; i < to; i++) {
+            dataset.copyRow(rows[i], point);
+            for (int j = 0; j < dimensions; j++) {
+                if (point[j] < min[j]) min[j] = point[j];
+                if (point[j] > max[j]) max[j] = point[j];
+            }
+        }
+        int widest = 0;
+        for (int j = 1; j < dimensions; j++) {
+            if (max[j] - min[j] > max[widest] - min[widest]) {
+                widest = j;
+            }
+        }
+        return widest;
+    }
+
+    @Override
+    public Pair<int[], double[]> nearest(int row, int k) {
+        double[] point = new double[dataset.dimensions()];
+        dataset.copyRow(row, point);
+        NeighborHeap heap = new NeighborHeap(k);
+        search(0, rows.length, point, row, heap);
+        return heap.drain();
+    }
+
+    private void search(int from, int to, double[] point, int exclude, NeighborHeap heap) {
+        if (to - from <= LEAF_SIZE) {
+            for (int i = from; i < to; i++) {
+                //dont count yourself
+                if (rows[i] == exclude) continue;
+                heap.offer(rows[i], dataset.squaredDistance(rows[i], point));
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        double difference = point[splitDimensions[middle]] - splitValues[middle];
+        if (difference < 0) {
+            search(from, middle, point, exclude, heap);
+            //a neighbour at exactly the current worst distance can still win on index
+            if (difference * difference <= heap.worst()) {
+                search(middle, to, point, exclude, heap);
+            }
+        } else {
+            search(middle, to, point, exclude, heap);
+            if (difference * difference <= heap.worst()) {
+                search(from, middle, point, exclude, heap);
+            }
+        }
+    }
+
+    //quickselect over valueBuffer[from, to), carrying rows along. afterwards position k
+    //holds the median value, smaller ones before it and larger ones after. uses a
+    //three-way partition since duplicate values are common
+    private void select(int from, int to, int k) {
+        int low = from;
+        int high = to - 1;
+        while (low < high) {
+            double pivot = medianOfThree(low, (low + high) >>> 1, high);
+            int lt = low, i = low, gt = high;
+            while (i <= gt) {
+                if (valueBuffer[i] < pivot) {
+                    swap(lt++, i++);
+                } else if (valueBuffer[i] > pivot) {
+                    swap(i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            if (k < lt) {
+                high = lt - 1;
+            } else if (k > gt) {
+                low = gt + 1;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double medianOfThree(int a, int b, int c) {
+        double x = valueBuffer[a], y = valueBuffer[b], z = valueBuffer[c];
+        if (x < y) {
+            return y < z ? y : (x < z ? z : x);
+        } else {
+            return x < z ? x : (y < z ? z : y);
+        }
+    }
+
+    private void swap(int a, int b) {
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+        double value = valueBuffer[a];
+        valueBuffer[a] = valueBuffer[b];
+        valueBuffer[b] = value;
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+/**
+ * Local outlier factors for selected rows of a dataset, with everything LOF needs kept
+ * in flat primitive arrays.
+ *
+ * A point's k nearest neighbours, its k-distance and its local reachability density
+ * are each computed at most once, the first time any score needs them, and then reused
+ * by every later score. Memory is fixed at O(n * k) whatever rows are scored. Not safe
+ * for concurrent use.
+ */
+public class LocalOutlierFactor {
+    private final NeighborIndex neighborIndex;
+    private final int k;
+    //neighbors of row i are at [i * k, (i + 1) * k), nearest first
+    private final int[] neighbors;
+    private final double[] distances;
+    private final boolean[] hasNeighbors;
+    //local reachability densities, NaN until computed
+    private final double[] densities;
+    //neighbor lists asked for, and how many of them were already known
+    private long lookups, cacheHits;
+
+    public LocalOutlierFactor(NeighborIndex neighborIndex, int size, int k) {
+        if (k < 1 || k >= size) {
+            throw new IllegalArgumentException("k must be between 1 and the dataset size - 1.");
+        }
+        this.neighborIndex = neighborIndex;
+        this.k = k;
+        neighbors = new int[size * k];
+        distances = new double[size * k];
+        hasNeighbors = new boolean[size];
+        densities = new double[size];
+        Arrays.fill(densities, Double.NaN);
+    }
+
+    /**
+     * Lof of each row, in the same order. The neighbors every score depends on, up to
+     * three hops away, are first looked up in batches so the index can answer them
+     * together.
+     */
+    public double[] score(int[] rows) {
+        int[] missing = rows;
+        for (int hop = 0; hop < 3 && missing.length > 0; hop++) {
+            missing = findNeighbors(missing);
+        }
+        double[] scores = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            scores[i] = score(rows[i]);
+        }
+        return scores;
+    }
+
+    //average density of the row's neighbors relative to its own. about 1 inside a
+    //cluster, larger the more isolated the row is from its neighbors
+    public double score(int row) {
+        int base = findNeighbors(row);
+        double neighborDensities = 0;
+        for (int i = 0; i < k; i++) {
+            neighborDensities += getReachabilityDensity(neighbors[base + i]);
+        }
+        return (neighborDensities / k) / getReachabilityDensity(row);
+    }
+
+    //distance to the k-th nearest neighbor
+    public double getKDistance(int row) {
+        return distances[findNeighbors(row) + k - 1];
+    }
+
+    //inverse of the average reachability distance from the row to its neighbors, where
+    //the reachability distance to a neighbor is never less than the neighbor's k-distance
+    public double getReachabilityDensity(int row) {
+        if (!Double.isNaN(densities[row])) {
+            return densities[row];
+        }
+        int base = findNeighbors(row);
+        double reachDistances = 0;
+        for (int i = 0; i < k; i++) {
+            reachDistances += Math.max(distances[base + i], getKDistance(neighbors[base + i]));
+        }
+        densities[row] = 1 / (reachDistances / k);
+        return densities[row];
+    }
+
+    public long getLookupCount() {
+        return lookups;
+    }
+
+    public long getCacheHitCount() {
+        return cacheHits;
+    }
+
+    //looks up the rows that have no neighbors yet in one batch, and returns the neighbors
+    //of those rows that in turn have none yet
+    private int[] findNeighbors(int[] rows) {
+        int[] batch = new int[rows.length];
+        int count = 0;
+        for (int row : rows) {
+            lookups++;
+            if (hasNeighbors[row]) {
+                cacheHits++;
+            } else {
+                //mark it now so duplicates are only queried once
+                hasNeighbors[row] = true;
+                batch[count++] = row;
+            }
+        }
+        batch = Arrays.copyOf(batch, count);
+        Pair<int[], double[]> nearest = neighborIndex.nearest(batch, k);
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(nearest.l, i * k, neighbors, batch[i] * k, k);
+            System.arraycopy(nearest.r, i * k, distances, batch[i] * k, k);
+        }
+        int[] next = new int[count * k];
+        int nextCount = 0;
+        for (int i = 0; i < nearest.l.length; i++) {
+            if (!hasNeighbors[nearest.l[i]]) {
+                next[nextCount++] = nearest.l[i];
+            }
+        }
+        return Arrays.copyOf(next, nextCount);
+    }
+
+    //queries the index the first time, returns the row's offset into the neighbor arrays
+    private int findNeighbors(int row) {
+        int base = row * k;
+        lookups++;
+        if (hasNeighbors[row]) {
+            cacheHits++;
+        } else {
+            Pair<int[], double[]> nearest = neighborIndex.nearest(row, k);
+            System.arraycopy(nearest.l, 0, neighbors, base, k);
+            System.arraycopy(nearest.r, 0, distances, base, k);
+            hasNeighbors[row] = true;
+        }
+        return base;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Receives measurements from ExtendedIsolationForest and EIF_LOF while they fit and
+ * score. Nothing is measured unless a listener is set, so the default costs nothing.
+ *
+ * Trees are built and points scored on several threads at once, so implementations
+ * must be thread safe. Every method does nothing by default.
+ */
+public interface MetricsListener {
+
+    //a tree finished building, taking nanos
+    default void treeBuilt(IsolationTree tree, long nanos) {
+    }
+
+    //count points were scored in nanos
+    default void pointsScored(int count, long nanos) {
+    }
+
+    //a named phase of a fit or an outlier search finished, taking nanos
+    default void phaseCompleted(String phase, long nanos) {
+    }
+
+    //lof asked for the neighbors of points lookups times, cacheHits of them already known
+    default void neighborLookups(long lookups, long cacheHits) {
+    }
+
+    //a fit or an outlier search settled on a value, such as a threshold or a candidate count
+    default void valueChosen(String name, double value) {
+    }
+}
@@ -0,0 +1,315 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * A MetricsListener that adds everything up in lock-free counters, to be read as JSON
+ * with toJson or through JMX after register.
+ *
+ * It keeps tree build times, node and leaf counts, a histogram of leaf depths, the
+ * distribution of proximity near distances (by power of two), scoring throughput, the
+ * LOF neighbor cache hit rate, the total time spent in every named phase and the last
+ * value chosen under every name. Counters only grow until reset is called.
+ */
+public class MetricsRecorder implements MetricsListener, MetricsRecorderMBean {
+    //deeper leaves are counted in the last bucket
+    private static final int MAX_DEPTH = 63;
+    //near distances are bucketed by binary exponent, from 2^-MIN_EXPONENT up
+    private static final int MIN_EXPONENT = 32;
+    private static final int EXPONENT_BUCKETS = 64;
+
+    private final LongAdder treesBuilt = new LongAdder();
+    private final LongAdder treeNanos = new LongAdder();
+    private final LongAccumulator maxTreeNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder internalNodes = new LongAdder();
+    private final LongAdder leaves = new LongAdder();
+    private final AtomicLongArray leafDepths = new AtomicLongArray(MAX_DEPTH + 1);
+
+    private final LongAdder nearDistanceCount = new LongAdder();
+    private final DoubleAdder nearDistanceSum = new DoubleAdder();
+    private final DoubleAccumulator nearDistanceMin = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+    private final DoubleAccumulator nearDistanceMax = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+    private final LongAdder zeroNearDistances = new LongAdder();
+    private final AtomicLongArray nearDistanceExponents = new AtomicLongArray(EXPONENT_BUCKETS);
+
+    private final LongAdder pointsScored = new LongAdder();
+    private final LongAdder scoringNanos = new LongAdder();
+
+    private final Map<String, LongAdder> phaseCounts = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> phaseNanos = new ConcurrentHashMap<>();
+
+    private final LongAdder neighborLookups = new LongAdder();
+    private final LongAdder neighborCacheHits = new LongAdder();
+
+    //the last value chosen under every name
+    private final Map<String, Double> values = new ConcurrentHashMap<>();
+
+    @Override
+    public void treeBuilt(IsolationTree tree, long nanos) {
+        treesBuilt.increment();
+        treeNanos.add(nanos);
+        maxTreeNanos.accumulate(nanos);
+        internalNodes.add(tree.getInternalCount());
+        leaves.add(tree.getLeafCount());
+        int[] depths = tree.getLeafDepthHistogram();
+        for (int depth = 0; depth < depths.length; depth++) {
+            if (depths[depth] > 0) {
+                leafDepths.addAndGet(Math.min(depth, MAX_DEPTH), depths[depth]);
+            }
+        }
+        for (double distance : tree.getNearDistances()) {
+            nearDistanceCount.increment();
+            nearDistanceSum.add(distance);
+            nearDistanceMin.accumulate(distance);
+            nearDistanceMax.accumulate(distance);
+            if (distance == 0) {
+                zeroNearDistances.increment();
+            } else {
+                int bucket = Math.getExponent(distance) + MIN_EXPONENT;
+                nearDistanceExponents.incrementAndGet(Math.max(0, Math.min(EXPONENT_BUCKETS - 1, bucket)));
+            }
+        }
+    }
+
+    @Override
+    public void pointsScored(int count, long nanos) {
+        pointsScored.add(count);
+        scoringNanos.add(nanos);
+    }
+
+    @Override
+    public void phaseCompleted(String phase, long nanos) {
+        phaseCounts.computeIfAbsent(phase, p -> new LongAdder()).increment();
+        phaseNanos.computeIfAbsent(phase, p -> new LongAdder()).add(nanos);
+    }
+
+    @Override
+    public void neighborLookups(long lookups, long cacheHits) {
+        neighborLookups.add(lookups);
+        neighborCacheHits.add(cacheHits);
+    }
+
+    @Override
+    public void valueChosen(String name, double value) {
+        values.put(name, value);
+    }
+
+    //makes the counters readable through the platform MBean server as EIF:type=Metrics,name=<name>
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("EIF:type=Metrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new RuntimeException("Could not register metrics as " + name + ".", e);
+        }
+    }
+
+    @Override
+    public long getTreesBuilt() {
+        return treesBuilt.sum();
+    }
+
+    @Override
+    public double getMeanTreeBuildMillis() {
+        long trees = treesBuilt.sum();
+        return trees == 0 ? 0 : treeNanos.sum() / 1e6 / trees;
+    }
+
+    @Override
+    public double getMaxTreeBuildMillis() {
+        return maxTreeNanos.get() / 1e6;
+    }
+
+    @Override
+    public long getInternalNodes() {
+        return internalNodes.sum();
+    }
+
+    @Override
+    public long getLeaves() {
+        return leaves.sum();
+    }
+
+    //leaves at each depth over all trees, up to the deepest one seen
+    @Override
+    public long[] getLeafDepthHistogram() {
+        int length = 0;
+        for (int depth = 0; depth <= MAX_DEPTH; depth++) {
+            if (leafDepths.get(depth) > 0) {
+                length = depth + 1;
+            }
+        }
+        long[] histogram = new long[length];
+        for (int depth = 0; depth < length; depth++) {
+            histogram[depth] = leafDepths.get(depth);
+        }
+        return histogram;
+    }
+
+    @Override
+    public long getPointsScored() {
+        return pointsScored.sum();
+    }
+
+    //points scored per second of scoring
+    @Override
+    public double getScoringThroughput() {
+        long nanos = scoringNanos.sum();
+        return nanos == 0 ? 0 : pointsScored.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public double getNeighborCacheHitRate() {
+        long lookups = neighborLookups.sum();
+        return lookups == 0 ? 0 : neighborCacheHits.sum() / (double) lookups;
+    }
+
+    @Override
+    public String getJson() {
+        return toJson();
+    }
+
+    //clears every counter. measurements arriving meanwhile may be partly kept
+    @Override
+    public void reset() {
+        treesBuilt.reset();
+        treeNanos.reset();
+        maxTreeNanos.reset();
+        internalNodes.reset();
+        leaves.reset();
+        for (int i = 0; i <= MAX_DEPTH; i++) {
+            leafDepths.set(i, 0);
+        }
+        nearDistanceCount.reset();
+        nearDistanceSum.reset();
+        nearDistanceMin.reset();
+        nearDistanceMax.reset();
+        zeroNearDistances.reset();
+        for (int i = 0; i < EXPONENT_BUCKETS; i++) {
+            nearDistanceExponents.set(i, 0);
+        }
+        pointsScored.reset();
+        scoringNanos.reset();
+        phaseCounts.clear();
+        phaseNanos.clear();
+        neighborLookups.reset();
+        neighborCacheHits.reset();
+        values.clear();
+    }
+
+    /**
+     * All counters as one JSON object. Near distances are summarized by count, mean,
+     * min and max, and histogrammed by binary exponent: key e counts the distances in
+     * [2^e, 2^(e+1)). Phase times are totals in milliseconds. Values that are NaN or
+     * infinite are written as null.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(1024);
+        json.append('{');
+        json.append("\"trees\":{\"built\":").append(getTreesBuilt())
+                .append(",\"meanBuildMillis\":");
+        appendNumber(json, getMeanTreeBuildMillis());
+        json.append(",\"maxBuildMillis\":");
+        appendNumber(json, getMaxTreeBuildMillis());
+        json.append(",\"internalNodes\":").append(getInternalNodes())
+                .append(",\"leaves\":").append(getLeaves())
+                .append(",\"leafDepthHistogram\":[");
+        long[] depths = getLeafDepthHistogram();
+        for (int i = 0; i < depths.length; i++) {
+            json.append(i == 0 ? "" : ",").append(depths[i]);
+        }
+        json.append("]}");
+
+        long nearCount = nearDistanceCount.sum();
+        json.append(",\"nearDistances\":{\"count\":").append(nearCount);
+        if (nearCount > 0) {
+            json.append(",\"mean\":");
+            appendNumber(json, nearDistanceSum.sum() / nearCount);
+            json.append(",\"min\":");
+            appendNumber(json, nearDistanceMin.get());
+            json.append(",\"max\":");
+            appendNumber(json, nearDistanceMax.get());
+        }
+        json.append(",\"zero\":").append(zeroNearDistances.sum()).append(",\"log2Histogram\":{");
+        boolean first = true;
+        for (int i = 0; i < EXPONENT_BUCKETS; i++) {
+            long count = nearDistanceExponents.get(i);
+            if (count > 0) {
+                json.append(first ? "" : ",").append('"').append(i - MIN_EXPONENT).append("\":").append(count);
+                first = false;
+            }
+        }
+        json.append("}}");
+
+        json.append(",\"scoring\":{\"points\":").append(getPointsScored())
+                .append(",\"millis\":").append(scoringNanos.sum() / 1e6)
+                .append(",\"pointsPerSecond\":");
+        appendNumber(json, getScoringThroughput());
+        json.append('}');
+
+        json.append(",\"neighbors\":{\"lookups\":").append(neighborLookups.sum())
+                .append(",\"cacheHits\":").append(neighborCacheHits.sum())
+                .append(",\"hitRate\":");
+        appendNumber(json, getNeighborCacheHitRate());
+        json.append('}');
+
+        json.append(",\"phases\":{");
+        first = true;
+        for (Map.Entry<String, LongAdder> phase : new TreeMap<>(phaseNanos).entrySet()) {
+            LongAdder count = phaseCounts.get(phase.getKey());
+            json.append(first ? "" : ",");
+            appendString(json, phase.getKey());
+            json.append(":{\"count\":").append(count == null ? 0 : count.sum())
+                    .append(",\"millis\":").append(phase.getValue().sum() / 1e6).append('}');
+            first = false;
+        }
+        json.append('}');
+
+        json.append(",\"values\":{");
+        first = true;
+        for (Map.Entry<String, Double> value : new TreeMap<>(values).entrySet()) {
+            json.append(first ? "" : ",");
+            appendString(json, value.getKey());
+            json.append(':');
+            appendNumber(json, value.getValue());
+            first = false;
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    //json has no NaN or infinities, so those are written as null
+    private static void appendNumber(StringBuilder json, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            json.append("null");
+        } else {
+            json.append(value);
+        }
+    }
+
+    //a quoted json string, with quotes, backslashes and control characters escaped
+    private static void appendString(StringBuilder json, String text) {
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
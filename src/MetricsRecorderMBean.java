@@ -0,0 +1,27 @@
+/**
+ * The JMX view of a MetricsRecorder. See MetricsRecorder.register.
+ */
+public interface MetricsRecorderMBean {
+
+    long getTreesBuilt();
+
+    double getMeanTreeBuildMillis();
+
+    double getMaxTreeBuildMillis();
+
+    long getInternalNodes();
+
+    long getLeaves();
+
+    long[] getLeafDepthHistogram();
+
+    long getPointsScored();
+
+    double getScoringThroughput();
+
+    double getNeighborCacheHitRate();
+
+    String getJson();
+
+    void reset();
+}
@@ -0,0 +1,118 @@
+/**
+ * The k nearest candidates seen so far during a neighbour query, kept in a bounded
+ * max-heap of primitive arrays so the farthest of them is always at the root and can be
+ * replaced in O(log k).
+ */
+class NeighborHeap {
+    private final int[] indices;
+    private final double[] squaredDistances;
+    private int size;
+
+    NeighborHeap(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("Number of neighbors must be positive.");
+        }
+        indices = new int[k];
+        squaredDistances = new double[k];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    boolean isFull() {
+        return size == indices.length;
+    }
+
+    //squared distance a candidate has to beat once the heap is full
+    double worst() {
+        return size == indices.length ? squaredDistances[0] : Double.POSITIVE_INFINITY;
+    }
+
+    //keeps the candidate if it is among the k nearest so far
+    void offer(int index, double squaredDistance) {
+        if (size < indices.length) {
+            indices[size] = index;
+            squaredDistances[size] = squaredDistance;
+            siftUp(size);
+            size++;
+        } else if (isFarther(squaredDistances[0], indices[0], squaredDistance, index)) {
+            indices[0] = index;
+            squaredDistances[0] = squaredDistance;
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Empties the heap into a pair of the neighbour indices and their euclidean (not
+     * squared) distances, ordered from nearest to farthest.
+     */
+    Pair<int[], double[]> drain() {
+        int[] resultIndices = new int[size];
+        double[] resultDistances = new double[size];
+        drainInto(resultIndices, resultDistances, 0);
+        return new Pair<int[], double[]>(resultIndices, resultDistances);
+    }
+
+    //like drain, but writes the neighbours to [offset, offset + size) of the given arrays
+    void drainInto(int[] resultIndices, double[] resultDistances, int offset) {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        for (int i = 0; i < size; i++) {
+            resultIndices[offset + i] = indices[i];
+            resultDistances[offset + i] = Math.sqrt(squaredDistances[i]);
+        }
+        size = 0;
+    }
+
+    //true if (distanceA, indexA) ranks behind (distanceB, indexB)
+    private static boolean isFarther(double distanceA, int indexA, double distanceB, int indexB) {
+        if (distanceA != distanceB) {
+            return distanceA > distanceB;
+        }
+        return indexA > indexB;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!isFarther(squaredDistances[i], indices[i], squaredDistances[parent], indices[parent])) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int size) {
+        while (true) {
+            int farthest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && isFarther(squaredDistances[left], indices[left],
+                    squaredDistances[farthest], indices[farthest])) {
+                farthest = left;
+            }
+            if (right < size && isFarther(squaredDistances[right], indices[right],
+                    squaredDistances[farthest], indices[farthest])) {
+                farthest = right;
+            }
+            if (farthest == i) {
+                return;
+            }
+            swap(i, farthest);
+            i = farthest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int index = indices[a];
+        indices[a] = indices[b];
+        indices[b] = index;
+        double distance = squaredDistances[a];
+        squaredDistances[a] = squaredDistances[b];
+        squaredDistances[b] = distance;
+    }
+}
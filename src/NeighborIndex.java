@@ -0,0 +1,45 @@
+/**
+ * Answers k-nearest-neighbour queries over the rows of a Dataset, by euclidean distance.
+ *
+ * An index is built once over the dataset and then queried any number of times, from
+ * any number of threads. Results are exact: every implementation returns the same
+ * neighbours for the same data, with ties in distance going to the lower row index.
+ */
+public interface NeighborIndex {
+    //above this many dimensions a kd-tree prunes too little to beat a linear scan
+    int KD_TREE_MAX_DIMENSIONS = 16;
+
+    /**
+     * The k rows nearest to the given row, not counting the row itself, and their
+     * distances, both ordered from nearest to farthest. Fewer than k are returned when
+     * the dataset has no more rows.
+     */
+    Pair<int[], double[]> nearest(int row, int k);
+
+    /**
+     * The k nearest neighbours of each of the given rows, flattened: those of rows[i] are
+     * at [i * k, (i + 1) * k) of the returned arrays, nearest first. k must be less than
+     * the dataset size. Implementations may answer the queries together.
+     */
+    default Pair<int[], double[]> nearest(int[] rows, int k) {
+        int[] neighbors = new int[rows.length * k];
+        double[] distances = new double[rows.length * k];
+        for (int i = 0; i < rows.length; i++) {
+            Pair<int[], double[]> nearest = nearest(rows[i], k);
+            if (nearest.l.length < k) {
+                throw new IllegalArgumentException("k must be less than the dataset size.");
+            }
+            System.arraycopy(nearest.l, 0, neighbors, i * k, k);
+            System.arraycopy(nearest.r, 0, distances, i * k, k);
+        }
+        return new Pair<int[], double[]>(neighbors, distances);
+    }
+
+    //a kd-tree for low dimensional data, otherwise a brute force scan
+    static NeighborIndex build(Dataset dataset) {
+        if (dataset.dimensions() <= KD_TREE_MAX_DIMENSIONS) {
+            return new KdTree(dataset);
+        }
+        return new BruteForceKnn(dataset);
+    }
+}
@@ -0,0 +1,119 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * A Dataset stored in direct buffers outside the Java heap, so large feature matrices
+ * cost the garbage collector nothing and are laid out contiguously.
+ *
+ * Values are kept either row after row (ROW_MAJOR, best when whole points are read, as
+ * in scoring and LOF distances) or column after column (COLUMN_MAJOR, best when one
+ * feature is scanned across many points). The matrix is split over several buffers
+ * when it is larger than a single buffer can address.
+ */
+public class OffHeapDataset extends EncodedDataset {
+
+    public enum Layout {
+        ROW_MAJOR, COLUMN_MAJOR
+    }
+
+    //each buffer holds 2^27 doubles (1GB)
+    private static final int CHUNK_SHIFT = 27;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final int rows;
+    private final int dimensions;
+    private final Layout layout;
+    private final DoubleBuffer[] chunks;
+
+    //allocates a zero filled dataset, to be filled with set
+    public OffHeapDataset(int rows, int dimensions, Layout layout) {
+        if (rows < 1 || dimensions < 1) {
+            throw new IllegalArgumentException("Dataset must have at least one row and column.");
+        }
+        this.rows = rows;
+        this.dimensions = dimensions;
+        this.layout = layout;
+        long elements = (long) rows * dimensions;
+        int chunkCount = (int) ((elements + CHUNK_MASK) >>> CHUNK_SHIFT);
+        chunks = new DoubleBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long chunkElements = Math.min(1L << CHUNK_SHIFT, elements - ((long) i << CHUNK_SHIFT));
+            chunks[i] = ByteBuffer.allocateDirect((int) chunkElements * Double.BYTES)
+                    .order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+    }
+
+    //copies a double[][] off the heap
+    public static OffHeapDataset copyOf(double[][] data, Layout layout) {
+        OffHeapDataset dataset = new OffHeapDataset(data.length, data[0].length, layout);
+        for (int i = 0; i < data.length; i++) {
+            for (int j = 0; j < dataset.dimensions; j++) {
+                dataset.set(i, j, data[i][j]);
+            }
+        }
+        return dataset;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public void set(int row, int column, double value) {
+        long index = index(row, column);
+        chunks[(int) (index >>> CHUNK_SHIFT)].put((int) (index & CHUNK_MASK), value);
+    }
+
+    @Override
+    double decode(int row, int column) {
+        return get(index(row, column));
+    }
+
+    @Override
+    public void copyRow(int row, double[] buffer) {
+        if (layout == Layout.ROW_MAJOR) {
+            long start = (long) row * dimensions;
+            DoubleBuffer chunk = chunks[(int) (start >>> CHUNK_SHIFT)];
+            int offset = (int) (start & CHUNK_MASK);
+            if (offset + dimensions <= chunk.capacity()) {
+                chunk.get(offset, buffer, 0, dimensions);
+                return;
+            }
+        }
+        for (int i = 0; i < dimensions; i++) {
+            buffer[i] = get(row, i);
+        }
+    }
+
+    @Override
+    public double squaredDistance(int row, double[] x) {
+        double distance = 0;
+        for (int i = 0; i < dimensions; i++) {
+            double difference = get(row, i) - x[i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    private long index(int row, int column) {
+        if (layout == Layout.ROW_MAJOR) {
+            return (long) row * dimensions + column;
+        } else {
+            return (long) column * rows + row;
+        }
+    }
+
+    private double get(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+    }
+}
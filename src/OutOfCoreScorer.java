@@ -0,0 +1,231 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Fits and scores delimited files too big to load, reading them front to back a block
+ * of lines at a time.
+ *
+ * A forest only ever looks at treeCount * sampleSize points, so fit builds it from a
+ * uniform reservoir sample of the stream. score parses chunks on the calling thread,
+ * scores them on a pool and passes them to a ScoreSink in row order. At most
+ * chunksInFlight chunks are out being scored; past that, reading waits for the oldest,
+ * and everything waits while the sink writes. Memory is bounded by the block size and
+ * the chunks in flight, however long the stream is.
+ */
+public class OutOfCoreScorer {
+    //bytes read and parsed at a time. a chunk holds the rows of one block
+    private static final int DEFAULT_BLOCK_SIZE = 1 << 22;
+
+    private final IsolationForestModel model;
+    private int parallelism;
+    //0 means parallelism + 1, enough to keep every thread busy while one chunk is written
+    private int chunksInFlight;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+
+    public OutOfCoreScorer(IsolationForestModel model) {
+        this.model = model;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    //number of threads scoring chunks. 1 scores them on the caller, between reads
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    //chunks read ahead of the one being written
+    public void setChunksInFlight(int chunksInFlight) {
+        if (chunksInFlight < 1) {
+            throw new IllegalArgumentException("Chunks in flight must be at least 1.");
+        }
+        this.chunksInFlight = chunksInFlight;
+    }
+
+    //bytes read at a time. a block grows if a single line does not fit
+    public void setBlockSize(int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be at least 1.");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Fits a forest on a reservoir sample of treeCount * sampleSize rows of the file. That
+     * is exactly enough for the forest to give every tree its own disjoint sample (see
+     * ExtendedIsolationForest.generateTrees); a smaller file is used whole, and its trees
+     * sample independently.
+     */
+    public static IsolationForestModel fit(String path, DataLoader.Schema schema, int treeCount,
+            int sampleSize, boolean splitOnProximity, long seed) throws IOException {
+        int size = (int) Math.min(Integer.MAX_VALUE - 8, (long) treeCount * sampleSize);
+        double[][] reservoir = sample(path, schema, size, seed);
+        if (reservoir.length < sampleSize) {
+            throw new IllegalArgumentException(path + " has only " + reservoir.length
+                    + " rows, fewer than the sample size.");
+        }
+        try (ExtendedIsolationForest forest = new ExtendedIsolationForest(reservoir, treeCount,
+                sampleSize, splitOnProximity)) {
+            forest.setSeed(seed);
+            //only the model is wanted, not scores of the reservoir
+            return forest.buildModel();
+        }
+    }
+
+    public static double[][] sample(String path, DataLoader.Schema schema, int size, long seed)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return sample(channel, schema, path, size, seed);
+        }
+    }
+
+    /**
+     * A uniform sample of size rows of the stream, every subset equally likely, by
+     * reservoir sampling. A stream with at most size rows comes back whole, in order.
+     * name is only used in error messages.
+     */
+    public static double[][] sample(ReadableByteChannel channel, DataLoader.Schema schema,
+            String name, int size, long seed) throws IOException {
+        int dimensions = schema.getFeatureCount();
+        DataLoader.ChunkReader reader = new DataLoader.ChunkReader(channel, schema, name,
+                DEFAULT_BLOCK_SIZE);
+        DataLoader.Chunk chunk = new DataLoader.Chunk();
+        Sampler random = new Sampler(seed);
+        double[][] reservoir = new double[Math.min(size, 1024)][];
+        long seen = 0;
+        while (reader.next(chunk)) {
+            for (int i = 0; i < chunk.rows; i++, seen++) {
+                int slot;
+                if (seen < size) {
+                    slot = (int) seen;
+                    if (slot == reservoir.length) {
+                        reservoir = Arrays.copyOf(reservoir, (int) Math.min(size, 2L * slot));
+                    }
+                    reservoir[slot] = new double[dimensions];
+                } else {
+                    //row seen replaces a random one with probability size / (seen + 1)
+                    long j = random.nextLong(seen + 1);
+                    if (j >= size) {
+                        continue;
+                    }
+                    slot = (int) j;
+                }
+                System.arraycopy(chunk.features, i * dimensions, reservoir[slot], 0, dimensions);
+            }
+        }
+        return seen < reservoir.length ? Arrays.copyOf(reservoir, (int) seen) : reservoir;
+    }
+
+    public long score(String path, DataLoader.Schema schema, ScoreSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return score(channel, schema, path, sink);
+        }
+    }
+
+    /**
+     * Scores every row of the stream, passing the scores to sink in row order, and returns
+     * the number of rows. Rows are numbered from 0 in the order they are kept, like the
+     * rows DataLoader.load returns. name is only used in error messages, and the channel
+     * is left open.
+     */
+    public long score(ReadableByteChannel channel, DataLoader.Schema schema, String name,
+            ScoreSink sink) throws IOException {
+        if (schema.getFeatureCount() != model.getDimensions()) {
+            throw new IllegalArgumentException("Model expects " + model.getDimensions()
+                    + " dimensions but the schema has " + schema.getFeatureCount() + ".");
+        }
+        DataLoader.ChunkReader reader = new DataLoader.ChunkReader(channel, schema, name, blockSize);
+        boolean labels = reader.hasLabels();
+        int inFlight = chunksInFlight > 0 ? chunksInFlight : parallelism + 1;
+        ForkJoinPool pool = parallelism == 1 ? null : new ForkJoinPool(parallelism);
+        ArrayDeque<Future<Batch>> pending = new ArrayDeque<>();
+        //batches whose scores have been written, ready to be filled again
+        ArrayDeque<Batch> free = new ArrayDeque<>();
+        long rows = 0;
+        try {
+            while (true) {
+                Batch batch = free.isEmpty() ? new Batch() : free.poll();
+                if (!reader.next(batch.chunk)) {
+                    break;
+                }
+                batch.firstRow = rows;
+                rows += batch.chunk.rows;
+                if (pool == null) {
+                    batch.score(model);
+                    batch.write(sink, labels);
+                    free.add(batch);
+                    continue;
+                }
+                pending.add(pool.submit(() -> {
+                    batch.score(model);
+                    return batch;
+                }));
+                if (pending.size() >= inFlight) {
+                    free.add(write(pending.poll(), sink, labels));
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(pending.poll(), sink, labels);
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        return rows;
+    }
+
+    //waits for a batch to be scored and writes it
+    private static Batch write(Future<Batch> future, ScoreSink sink, boolean labels)
+            throws IOException {
+        Batch batch;
+        try {
+            batch = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while scoring.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        batch.write(sink, labels);
+        return batch;
+    }
+
+    //one chunk of rows and their scores. the arrays are kept when the batch is refilled
+    private static class Batch {
+        final DataLoader.Chunk chunk = new DataLoader.Chunk();
+        double[][] points = new double[0][];
+        double[] scores = new double[0];
+        long firstRow;
+
+        void score(IsolationForestModel model) {
+            int rows = chunk.rows;
+            int dimensions = model.getDimensions();
+            if (points.length < rows) {
+                int old = points.length;
+                points = Arrays.copyOf(points, rows);
+                for (int i = old; i < rows; i++) {
+                    points[i] = new double[dimensions];
+                }
+                scores = new double[rows];
+            }
+            for (int i = 0; i < rows; i++) {
+                System.arraycopy(chunk.features, i * dimensions, points[i], 0, dimensions);
+            }
+            model.scoreBatch(new ArrayDataset(points), 0, rows, scores);
+        }
+
+        void write(ScoreSink sink, boolean labels) throws IOException {
+            sink.write(firstRow, scores, labels ? chunk.labels : null, chunk.rows);
+        }
+    }
+}
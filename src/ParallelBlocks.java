@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a range of work into blocks and runs them on a pool, waiting for all of them.
+ * Every block is computed exactly as it would be sequentially, so results do not depend
+ * on the parallelism. The pool belongs to the caller.
+ */
+final class ParallelBlocks {
+
+    interface Block {
+        void run(int start, int end);
+    }
+
+    private ParallelBlocks() {
+    }
+
+    //runs [0, count) in blocks of blockSize, on the pool, or on the caller if pool is
+    //null or there is only one block
+    static void run(ForkJoinPool pool, int count, int blockSize, Block block) {
+        if (pool == null || count <= blockSize) {
+            for (int start = 0; start < count; start += blockSize) {
+                block.run(start, Math.min(count, start + blockSize));
+            }
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>((count + blockSize - 1) / blockSize);
+        for (int start = 0; start < count; start += blockSize) {
+            final int from = start;
+            final int to = Math.min(count, start + blockSize);
+            tasks.add(() -> {
+                block.run(from, to);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while running parallel tasks.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An off-heap Dataset that stores every value in one byte, an eighth of the memory and
+ * bandwidth of doubles.
+ *
+ * Each column is mapped linearly onto 0-255 between its minimum and maximum, so a value
+ * is stored as min + scale * code with scale = (max - min) / 255. The rounding error of a
+ * value is at most scale / 2, i.e. 1/510 of its column's range. Dot products and distances
+ * decode the bytes on the fly, so trees split and score directly on the compact codes.
+ * Rankings stay close to the double-precision ones as long as outliers are separated from
+ * normal points by more than that error, which holds for features with a natural
+ * resolution of 8 bits or less (such as the satellite pixel values).
+ */
+public class QuantizedDataset extends EncodedDataset {
+    //largest number of bytes put in one direct buffer
+    private static final int MAX_CHUNK_ELEMENTS = 1 << 30;
+
+    private final int rows;
+    private final int dimensions;
+    private final int rowsPerChunk;
+    private final ByteBuffer[] chunks;
+    //value = offsets[column] + scales[column] * code
+    private final double[] offsets;
+    private final double[] scales;
+
+    //allocates a dataset whose columns span [min[i], max[i]], to be filled with set
+    public QuantizedDataset(int rows, double[] min, double[] max) {
+        if (rows < 1 || min.length < 1 || min.length != max.length) {
+            throw new IllegalArgumentException("Dataset must have at least one row and column.");
+        }
+        this.rows = rows;
+        this.dimensions = min.length;
+        this.offsets = min.clone();
+        this.scales = new double[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            scales[i] = (max[i] - min[i]) / 255;
+        }
+        this.rowsPerChunk = Math.max(1, MAX_CHUNK_ELEMENTS / dimensions);
+        int chunkCount = (rows + rowsPerChunk - 1) / rowsPerChunk;
+        chunks = new ByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            int chunkRows = Math.min(rowsPerChunk, rows - i * rowsPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(chunkRows * dimensions);
+        }
+    }
+
+    //quantizes a dataset, using each column's own minimum and maximum
+    public static QuantizedDataset copyOf(Dataset data) {
+        int dimensions = data.dimensions();
+        double[] min = new double[dimensions];
+        double[] max = new double[dimensions];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        double[] row = new double[dimensions];
+        for (int i = 0; i < data.size(); i++) {
+            data.copyRow(i, row);
+            for (int j = 0; j < dimensions; j++) {
+                min[j] = Math.min(min[j], row[j]);
+                max[j] = Math.max(max[j], row[j]);
+            }
+        }
+        QuantizedDataset dataset = new QuantizedDataset(data.size(), min, max);
+        for (int i = 0; i < data.size(); i++) {
+            data.copyRow(i, row);
+            for (int j = 0; j < dimensions; j++) {
+                dataset.set(i, j, row[j]);
+            }
+        }
+        return dataset;
+    }
+
+    public static QuantizedDataset copyOf(double[][] data) {
+        return copyOf(new ArrayDataset(data));
+    }
+
+    @Override
+    public int size() {
+        return rows;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    //stores the code closest to value, clamped to the column's range
+    public void set(int row, int column, double value) {
+        long code = scales[column] == 0 ? 0 : Math.round((value - offsets[column]) / scales[column]);
+        code = Math.max(0, Math.min(255, code));
+        chunks[row / rowsPerChunk].put((row % rowsPerChunk) * dimensions + column, (byte) code);
+    }
+
+    @Override
+    double decode(int row, int column) {
+        return decode(chunks[row / rowsPerChunk].get((row % rowsPerChunk) * dimensions + column), column);
+    }
+
+    @Override
+    public void copyRow(int row, double[] buffer) {
+        ByteBuffer chunk = chunks[row / rowsPerChunk];
+        int start = (row % rowsPerChunk) * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            buffer[i] = decode(chunk.get(start + i), i);
+        }
+    }
+
+    @Override
+    public double squaredDistance(int row, double[] x) {
+        ByteBuffer chunk = chunks[row / rowsPerChunk];
+        int start = (row % rowsPerChunk) * dimensions;
+        double distance = 0;
+        for (int i = 0; i < dimensions; i++) {
+            double difference = decode(chunk.get(start + i), i) - x[i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    private double decode(byte code, int column) {
+        return offsets[column] + scales[column] * (code & 0xFF);
+    }
+}
@@ -0,0 +1,213 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writes results to a channel through a fixed size buffer, as CSV or as compact binary
+ * records, so millions of rows never have to be held as text. An exporter writes one
+ * table: per-point scores (writeScores, or as the ScoreSink of an OutOfCoreScorer) or
+ * the points of a RocCurve (writeCurve).
+ *
+ * CSV starts with a header line naming the columns. Score rows are row, score, then
+ * label and rank when known; curve rows are threshold, truePositiveRate,
+ * falsePositiveRate and precision, with the true positive rate doubling as recall.
+ * Doubles are printed by Double.toString, so they parse back to the same values.
+ *
+ * Binary starts with the int BINARY_MAGIC, a version byte, the table (SCORES or CURVE)
+ * and a byte of column flags, followed by fixed size big-endian records in the CSV
+ * column order: a long row, a double score, then a label byte if HAS_LABELS and an int
+ * rank if HAS_RANKS; or four doubles per curve point.
+ */
+public class ResultsExporter implements ScoreSink, Closeable {
+    public enum Format {
+        CSV, BINARY
+    }
+
+    //binary header: "EIFR" and a format version byte
+    public static final int BINARY_MAGIC = 0x45494652;
+    public static final int BINARY_VERSION = 1;
+    //tables
+    public static final int SCORES = 1;
+    public static final int CURVE = 2;
+    //column flags of the scores table
+    public static final int HAS_LABELS = 1;
+    public static final int HAS_RANKS = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    //longest csv line or binary record, four doubles and separators at most
+    private static final int MAX_RECORD = 128;
+
+    private final WritableByteChannel channel;
+    private final Format format;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    //table and flags of the header written, or 0 before the first write
+    private int table;
+    private int flags;
+
+    public ResultsExporter(WritableByteChannel channel, Format format) {
+        this.channel = channel;
+        this.format = format;
+    }
+
+    //creates or replaces the file at path
+    public static ResultsExporter open(String path, Format format) throws IOException {
+        return new ResultsExporter(FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), format);
+    }
+
+    /**
+     * Writes the score of every point, numbered from 0, with its rank: 1 for the highest
+     * score, and points with equal scores share the best rank among them. labels can be
+     * null.
+     */
+    public void writeScores(double[] scores, int[] labels) throws IOException {
+        if (labels != null && labels.length != scores.length) {
+            throw new IllegalArgumentException("Scores and labels must have the same length.");
+        }
+        writeScores(0, scores, labels, ranks(scores), scores.length);
+    }
+
+    //scores streamed in row order, without ranks, which would need every score first
+    @Override
+    public void write(long firstRow, double[] scores, int[] labels, int count) throws IOException {
+        writeScores(firstRow, scores, labels, null, count);
+    }
+
+    //writes every point of the curve, from the (0, 0) point on
+    public void writeCurve(RocCurve roc) throws IOException {
+        start(CURVE, 0);
+        double[] thresholds = roc.getThresholds();
+        double[] truePositiveRates = roc.getTruePositiveRates();
+        double[] falsePositiveRates = roc.getFalsePositiveRates();
+        double[] precisions = roc.getPrecisions();
+        for (int i = 0; i < roc.size(); i++) {
+            reserve();
+            if (format == Format.BINARY) {
+                buffer.putDouble(thresholds[i]).putDouble(truePositiveRates[i])
+                        .putDouble(falsePositiveRates[i]).putDouble(precisions[i]);
+            } else {
+                putText(Double.toString(thresholds[i]));
+                buffer.put((byte) ',');
+                putText(Double.toString(truePositiveRates[i]));
+                buffer.put((byte) ',');
+                putText(Double.toString(falsePositiveRates[i]));
+                buffer.put((byte) ',');
+                putText(Double.toString(precisions[i]));
+                buffer.put((byte) '\n');
+            }
+        }
+    }
+
+    //writes out what is buffered
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    //flushes and closes the channel
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Competition ranks of the scores, highest first: a point's rank is one more than the
+     * number of points with a strictly higher score.
+     */
+    public static int[] ranks(double[] scores) {
+        double[] sorted = scores.clone();
+        Arrays.sort(sorted);
+        int[] ranks = new int[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            //first position past every score equal to this one
+            int low = 0, high = sorted.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (Double.compare(sorted[middle], scores[i]) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            ranks[i] = sorted.length - low + 1;
+        }
+        return ranks;
+    }
+
+    private void writeScores(long firstRow, double[] scores, int[] labels, int[] ranks, int count)
+            throws IOException {
+        start(SCORES, (labels != null ? HAS_LABELS : 0) | (ranks != null ? HAS_RANKS : 0));
+        for (int i = 0; i < count; i++) {
+            reserve();
+            if (format == Format.BINARY) {
+                buffer.putLong(firstRow + i).putDouble(scores[i]);
+                if (labels != null) {
+                    buffer.put((byte) labels[i]);
+                }
+                if (ranks != null) {
+                    buffer.putInt(ranks[i]);
+                }
+            } else {
+                putText(Long.toString(firstRow + i));
+                buffer.put((byte) ',');
+                putText(Double.toString(scores[i]));
+                if (labels != null) {
+                    buffer.put((byte) ',');
+                    putText(Integer.toString(labels[i]));
+                }
+                if (ranks != null) {
+                    buffer.put((byte) ',');
+                    putText(Integer.toString(ranks[i]));
+                }
+                buffer.put((byte) '\n');
+            }
+        }
+    }
+
+    //writes the header on the first write, and checks later writes add to the same table
+    private void start(int table, int flags) throws IOException {
+        if (this.table != 0) {
+            if (table != this.table || flags != this.flags) {
+                throw new IllegalStateException("An exporter writes rows of a single table.");
+            }
+            return;
+        }
+        this.table = table;
+        this.flags = flags;
+        reserve();
+        if (format == Format.BINARY) {
+            buffer.putInt(BINARY_MAGIC).put((byte) BINARY_VERSION).put((byte) table).put((byte) flags);
+        } else if (table == CURVE) {
+            putText("threshold,truePositiveRate,falsePositiveRate,precision\n");
+        } else {
+            putText("row,score" + ((flags & HAS_LABELS) != 0 ? ",label" : "")
+                    + ((flags & HAS_RANKS) != 0 ? ",rank" : "") + "\n");
+        }
+    }
+
+    //makes room for one more record
+    private void reserve() throws IOException {
+        if (buffer.remaining() < MAX_RECORD) {
+            flush();
+        }
+    }
+
+    //text is ascii: digits, signs, exponents, Infinity and NaN
+    private void putText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+}
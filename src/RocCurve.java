@@ -0,0 +1,129 @@
+import java.util.Arrays;
+
+/**
+ * Exact ROC and precision-recall curves for a set of anomaly scores.
+ *
+ * Every distinct score is used as a threshold, and a point is declared an outlier when
+ * its score is at least the threshold. Points sharing a score always cross the
+ * threshold together, so ties become one diagonal step of the ROC curve (worth half
+ * credit in the AUC) instead of depending on the order the points happen to be in.
+ * The scores are sorted once, so building the curve costs O(n log n).
+ */
+public class RocCurve {
+    //one entry per curve point, starting at the (0, 0) point where nothing is flagged
+    private double[] thresholds;
+    private double[] truePositiveRates;
+    private double[] falsePositiveRates;
+    private double[] precisions;
+    private double auc;
+    private double prAuc;
+
+    //labels use 1 for outliers and 0 for normal points. scores must not be NaN
+    public RocCurve(double[] scores, int[] labels) {
+        if (scores.length != labels.length) {
+            throw new IllegalArgumentException("Scores and labels must have the same length.");
+        }
+        int positiveCount = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] == 1) {
+                positiveCount++;
+            }
+        }
+        int negativeCount = labels.length - positiveCount;
+        if (positiveCount == 0 || negativeCount == 0) {
+            throw new IllegalArgumentException("Labels must contain both outliers and normal points.");
+        }
+
+        //split the scores by class and sort each ascending, then merge them from the top
+        double[] positives = new double[positiveCount];
+        double[] negatives = new double[negativeCount];
+        int p = 0, n = 0;
+        for (int i = 0; i < scores.length; i++) {
+            //NaN equals no threshold, so it could never be merged
+            if (Double.isNaN(scores[i])) {
+                throw new IllegalArgumentException("Score " + i + " is NaN.");
+            }
+            if (labels[i] == 1) {
+                positives[p++] = scores[i];
+            } else {
+                negatives[n++] = scores[i];
+            }
+        }
+        Arrays.sort(positives);
+        Arrays.sort(negatives);
+
+        thresholds = new double[scores.length + 1];
+        truePositiveRates = new double[scores.length + 1];
+        falsePositiveRates = new double[scores.length + 1];
+        precisions = new double[scores.length + 1];
+        thresholds[0] = Double.POSITIVE_INFINITY;
+        precisions[0] = 1;
+
+        int points = 1;
+        int truePositives = 0, falsePositives = 0;
+        p = positiveCount - 1;
+        n = negativeCount - 1;
+        while (p >= 0 || n >= 0) {
+            //next distinct score, then take every point of either class that has it
+            double threshold;
+            if (n < 0 || (p >= 0 && positives[p] >= negatives[n])) {
+                threshold = positives[p];
+            } else {
+                threshold = negatives[n];
+            }
+            while (p >= 0 && positives[p] == threshold) {
+                truePositives++;
+                p--;
+            }
+            while (n >= 0 && negatives[n] == threshold) {
+                falsePositives++;
+                n--;
+            }
+            thresholds[points] = threshold;
+            truePositiveRates[points] = truePositives / (double) positiveCount;
+            falsePositiveRates[points] = falsePositives / (double) negativeCount;
+            precisions[points] = truePositives / (double) (truePositives + falsePositives);
+
+            //trapezoid under the roc step, and a rectangle under the precision-recall step
+            auc += .5 * (truePositiveRates[points] + truePositiveRates[points - 1])
+                    * (falsePositiveRates[points] - falsePositiveRates[points - 1]);
+            prAuc += precisions[points] * (truePositiveRates[points] - truePositiveRates[points - 1]);
+            points++;
+        }
+
+        thresholds = Arrays.copyOf(thresholds, points);
+        truePositiveRates = Arrays.copyOf(truePositiveRates, points);
+        falsePositiveRates = Arrays.copyOf(falsePositiveRates, points);
+        precisions = Arrays.copyOf(precisions, points);
+    }
+
+    public double getAUC() {
+        return auc;
+    }
+
+    //area under the precision-recall curve, as average precision over the recall steps
+    public double getPRAUC() {
+        return prAuc;
+    }
+
+    public int size() {
+        return thresholds.length;
+    }
+
+    //a point is flagged at threshold i when its score is at least thresholds[i]
+    public double[] getThresholds() {
+        return thresholds;
+    }
+
+    public double[] getTruePositiveRates() {
+        return truePositiveRates;
+    }
+
+    public double[] getFalsePositiveRates() {
+        return falsePositiveRates;
+    }
+
+    public double[] getPrecisions() {
+        return precisions;
+    }
+}
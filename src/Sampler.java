@@ -0,0 +1,150 @@
+/**
+ * The random numbers behind tree building and subsampling: uniform and gaussian draws,
+ * and sampling of indices without replacement, all on primitives.
+ *
+ * It is a SplitMix64 generator, so its state is one long, seeding costs nothing and the
+ * output of a seed is the same on every platform. A sampler is not safe for concurrent
+ * use; work running in parallel gets one sampler each, seeded from a common seed with
+ * seedFor or taken from a parent with split, so results do not depend on the threads.
+ */
+public final class Sampler {
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+    //second value of the last polar draw, valid while hasSpareGaussian
+    private double spareGaussian;
+    private boolean hasSpareGaussian;
+
+    public Sampler(long seed) {
+        this.state = seed;
+    }
+
+    //the seed of the index-th of several independent samplers derived from seed
+    public static long seedFor(long seed, long index) {
+        return mix(seed + (index + 1) * GAMMA);
+    }
+
+    //a new sampler whose numbers are independent of the ones this one goes on to produce
+    public Sampler split() {
+        return new Sampler(mix(nextLong() ^ GAMMA));
+    }
+
+    public long nextLong() {
+        state += GAMMA;
+        return mix(state);
+    }
+
+    //uniform in [0, bound), without modulo bias
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive.");
+        }
+        //lemire's multiply and shift, rejecting the few products that would favor low values
+        long product = (nextLong() >>> 32) * bound;
+        long low = product & 0xFFFFFFFFL;
+        if (low < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while (low < threshold) {
+                product = (nextLong() >>> 32) * bound;
+                low = product & 0xFFFFFFFFL;
+            }
+        }
+        return (int) (product >>> 32);
+    }
+
+    //uniform in [0, bound)
+    public long nextLong(long bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Bound must be positive.");
+        }
+        long bits, value;
+        do {
+            bits = nextLong() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    //uniform in [0, 1), on a grid of 2^-53
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    //standard normal, by marsaglia's polar method. draws come in pairs, the second is kept
+    public double nextGaussian() {
+        if (hasSpareGaussian) {
+            hasSpareGaussian = false;
+            return spareGaussian;
+        }
+        double u, v, s;
+        do {
+            u = 2 * nextDouble() - 1;
+            v = 2 * nextDouble() - 1;
+            s = u * u + v * v;
+        } while (s >= 1 || s == 0);
+        double factor = Math.sqrt(-2 * Math.log(s) / s);
+        spareGaussian = v * factor;
+        hasSpareGaussian = true;
+        return u * factor;
+    }
+
+    /**
+     * Partial Fisher-Yates: moves a uniform sample of count of the values into
+     * values[0, count), in random order, touching nothing past the first count swaps.
+     * The values can start in any order, so a buffer can be reused between samples.
+     */
+    public void shuffle(int[] values, int count) {
+        if (count < 0 || count > values.length) {
+            throw new IllegalArgumentException("Count must be between 0 and " + values.length + ".");
+        }
+        for (int i = 0; i < count && i < values.length - 1; i++) {
+            int j = i + nextInt(values.length - i);
+            int temp = values[j];
+            values[j] = values[i];
+            values[i] = temp;
+        }
+    }
+
+    /**
+     * Fills sample with distinct values of [0, n), every subset equally likely. This is
+     * reservoir sampling with geometric skips (Li's algorithm L), so it takes time in
+     * the sample size rather than n and needs no memory besides sample.
+     */
+    public void sample(int n, int[] sample) {
+        int k = sample.length;
+        if (k > n) {
+            throw new IllegalArgumentException("Cannot sample " + k + " distinct values of " + n + ".");
+        }
+        for (int i = 0; i < k; i++) {
+            sample[i] = i;
+        }
+        if (k == 0) {
+            return;
+        }
+        //w is the largest of k uniform keys; the next value to enter the reservoir is
+        //a geometric number of values later
+        double w = Math.exp(Math.log(nextOpenDouble()) / k);
+        int i = k - 1;
+        while (true) {
+            double skip = Math.floor(Math.log(nextOpenDouble()) / Math.log1p(-w));
+            if (!(skip < n - 1 - i)) {
+                return;
+            }
+            i += (int) skip + 1;
+            sample[nextInt(k)] = i;
+            w *= Math.exp(Math.log(nextOpenDouble()) / k);
+        }
+    }
+
+    //uniform in (0, 1], so its logarithm is finite
+    private double nextOpenDouble() {
+        return ((nextLong() >>> 11) + 1) * 0x1.0p-53;
+    }
+
+    //splitmix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,29 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Receives the scores OutOfCoreScorer computes, a chunk of rows at a time. Chunks arrive
+ * in row order on the thread that called score, and scoring waits while write runs, so
+ * a slow sink holds back reading instead of letting scores pile up in memory.
+ */
+public interface ScoreSink {
+
+    /**
+     * Scores of rows firstRow, firstRow + 1, ... in scores[0, count). labels[0, count)
+     * holds their labels when the schema has a label column and is null otherwise. The
+     * arrays are reused for later chunks once write returns.
+     */
+    void write(long firstRow, double[] scores, int[] labels, int count) throws IOException;
+
+    //writes a "row,score" line per row, after a header, to out. out is not closed
+    static ScoreSink csv(Writer out) throws IOException {
+        out.write("row,score\n");
+        return (firstRow, scores, labels, count) -> {
+            StringBuilder lines = new StringBuilder(count * 24);
+            for (int i = 0; i < count; i++) {
+                lines.append(firstRow + i).append(',').append(scores[i]).append('\n');
+            }
+            out.append(lines);
+        };
+    }
+}
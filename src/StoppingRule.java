@@ -0,0 +1,80 @@
+/**
+ * Decides how far the path length sum of a point over the whole forest can still move,
+ * given the trees it has been run through so far. AdaptiveScorer stops running a point
+ * through trees once these bounds put it on one side of a cutoff.
+ *
+ * EXACT uses the shortest and longest leaf of each remaining tree, so its decisions are
+ * always the ones full scoring would make. confidence(z) treats the remaining trees as
+ * further samples of the path lengths seen so far and stops once the estimated sum is
+ * z standard errors from the cutoff. It stops much sooner, and may misplace points
+ * whose score is close to the cutoff.
+ */
+public interface StoppingRule {
+
+    StoppingRule EXACT = new StoppingRule() {
+        @Override
+        public double lowerBound(double sum, double sumOfSquares, int treesDone, int treeCount,
+                double remainingMin, double remainingMax) {
+            return sum + remainingMin;
+        }
+
+        @Override
+        public double upperBound(double sum, double sumOfSquares, int treesDone, int treeCount,
+                double remainingMin, double remainingMax) {
+            return sum + remainingMax;
+        }
+    };
+
+    /**
+     * The smallest the total path length sum can end up, given the sum and sum of squares
+     * of the path lengths in the first treesDone trees, and the sums of the shortest and
+     * longest leaves of the trees still to go.
+     */
+    double lowerBound(double sum, double sumOfSquares, int treesDone, int treeCount,
+            double remainingMin, double remainingMax);
+
+    //the largest the total path length sum can end up, see lowerBound
+    double upperBound(double sum, double sumOfSquares, int treesDone, int treeCount,
+            double remainingMin, double remainingMax);
+
+    //bounds of z standard errors around the extrapolated sum, never wider than EXACT's.
+    //both are clamped into EXACT's bounds, so the lower bound is never above the upper
+    static StoppingRule confidence(double z) {
+        if (!(z > 0)) {
+            throw new IllegalArgumentException("z must be positive.");
+        }
+        return new StoppingRule() {
+            @Override
+            public double lowerBound(double sum, double sumOfSquares, int treesDone, int treeCount,
+                    double remainingMin, double remainingMax) {
+                return sum + clamp(estimate(sum, sumOfSquares, treesDone, treeCount, -z),
+                        remainingMin, remainingMax);
+            }
+
+            @Override
+            public double upperBound(double sum, double sumOfSquares, int treesDone, int treeCount,
+                    double remainingMin, double remainingMax) {
+                return sum + clamp(estimate(sum, sumOfSquares, treesDone, treeCount, z),
+                        remainingMin, remainingMax);
+            }
+        };
+    }
+
+    //sum of the remaining trees' path lengths, extrapolated from the mean so far and moved
+    //by z standard errors. the error counts both the spread of the remaining trees and
+    //the uncertainty of the mean they are extrapolated with
+    private static double estimate(double sum, double sumOfSquares, int treesDone, int treeCount,
+            double z) {
+        int remaining = treeCount - treesDone;
+        if (treesDone < 2 || remaining == 0) {
+            return z < 0 ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+        }
+        double mean = sum / treesDone;
+        double variance = Math.max(0, (sumOfSquares - sum * mean) / (treesDone - 1));
+        return remaining * mean + z * Math.sqrt(variance * remaining * (1 + remaining / (double) treesDone));
+    }
+
+    private static double clamp(double estimate, double remainingMin, double remainingMax) {
+        return Math.min(remainingMax, Math.max(remainingMin, estimate));
+    }
+}
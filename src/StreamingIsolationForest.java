@@ -0,0 +1,274 @@
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An isolation forest over an unbounded stream of points whose distribution may drift.
+ *
+ * The most recent points are kept in a fixed size window, either the last windowSize
+ * points (SLIDING) or a uniform sample of everything seen so far (RESERVOIR). Every
+ * rebuildInterval points the oldest trees are retired and replaced by trees built from
+ * samples of the current window. Building happens on a background thread; scoring reads
+ * the current IsolationForestModel from an atomic reference and never waits for it, so
+ * the cost of scoring an event stays the same while the forest is being rebuilt.
+ *
+ * add, update and score may be called from any number of threads.
+ */
+public class StreamingIsolationForest implements AutoCloseable {
+
+    public enum WindowPolicy {
+        SLIDING, RESERVOIR
+    }
+
+    private final int dimensions;
+    private final int treeCount;
+    private final int sampleSize;
+    private final int heightLimit;
+    private final int windowSize;
+    private final boolean splitOnProximity;
+    private final int extensionLevel;
+    private WindowPolicy windowPolicy = WindowPolicy.SLIDING;
+    private int rebuildInterval;
+    private int treesPerRebuild;
+    private long seed;
+
+    //the window, windowSize rows of dimensions values, guarded by itself
+    private final double[] window;
+    private int windowCount;
+    private int nextSlot;
+    private long seenCount;
+    private long addedSinceRebuild;
+    //chooses reservoir slots, guarded by window
+    private Sampler reservoirRandom;
+
+    //the forest scores are computed with, null until the window first holds sampleSize points
+    private final AtomicReference<IsolationForestModel> model = new AtomicReference<>();
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+    private final ExecutorService rebuilder;
+    //only touched by the rebuild thread. numbers the trees built so far, so every tree
+    //gets its own seed
+    private long treesBuilt;
+    //a permutation of the filled window slots, shuffled to pick samples
+    private int[] sampleBuffer = new int[0];
+    //set when a background rebuild fails, and thrown from the next add
+    private volatile RuntimeException rebuildFailure;
+
+    public StreamingIsolationForest(int dimensions, int treeCount, int sampleSize, int windowSize,
+            boolean splitOnProximity) {
+        this(dimensions, treeCount, sampleSize, windowSize, splitOnProximity, dimensions - 1);
+    }
+
+    public StreamingIsolationForest(int dimensions, int treeCount, int sampleSize, int windowSize,
+            boolean splitOnProximity, int extensionLevel) {
+        if (extensionLevel < 0 || extensionLevel >= dimensions) {
+            throw new IllegalArgumentException("Extension level must be between 0 and "
+                    + (dimensions - 1) + ".");
+        }
+        if (treeCount < 1 || sampleSize < 1) {
+            throw new IllegalArgumentException("Tree count and sample size must be positive.");
+        }
+        if (windowSize < sampleSize) {
+            throw new IllegalArgumentException("Window must hold at least sampleSize points.");
+        }
+        this.dimensions = dimensions;
+        this.treeCount = treeCount;
+        this.sampleSize = sampleSize;
+        this.heightLimit = (int) Math.ceil(Math.log10(sampleSize)/Math.log10(2));
+        this.windowSize = windowSize;
+        this.splitOnProximity = splitOnProximity;
+        this.extensionLevel = extensionLevel;
+        this.window = new double[windowSize * dimensions];
+        //by default a tenth of the forest is replaced every tenth of a window, so the
+        //whole forest is rebuilt once per window of points
+        this.treesPerRebuild = Math.max(1, treeCount / 10);
+        this.rebuildInterval = Math.max(1, windowSize / 10);
+        setSeed(new Random().nextLong());
+        rebuilder = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "isolation-forest-rebuild");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //fixes the seed used for sampling and building. call before adding points
+    public void setSeed(long seed) {
+        synchronized (window) {
+            this.seed = seed;
+            this.reservoirRandom = new Sampler(seed);
+        }
+    }
+
+    public void setWindowPolicy(WindowPolicy windowPolicy) {
+        synchronized (window) {
+            this.windowPolicy = windowPolicy;
+        }
+    }
+
+    //number of points added between two rebuilds
+    public void setRebuildInterval(int rebuildInterval) {
+        if (rebuildInterval < 1) {
+            throw new IllegalArgumentException("Rebuild interval must be at least 1.");
+        }
+        synchronized (window) {
+            this.rebuildInterval = rebuildInterval;
+        }
+    }
+
+    //number of the oldest trees replaced by each rebuild
+    public void setTreesPerRebuild(int treesPerRebuild) {
+        if (treesPerRebuild < 1 || treesPerRebuild > treeCount) {
+            throw new IllegalArgumentException("Trees per rebuild must be between 1 and "
+                    + treeCount + ".");
+        }
+        synchronized (window) {
+            this.treesPerRebuild = treesPerRebuild;
+        }
+    }
+
+    /**
+     * Scores x against the current forest and then adds it to the window. Returns NaN
+     * while no forest has been built yet.
+     */
+    public double update(double[] x) {
+        IsolationForestModel current = model.get();
+        double score = current == null ? Double.NaN : current.score(x);
+        add(x);
+        return score;
+    }
+
+    //scores x against the current forest, without adding it
+    public double score(double[] x) {
+        IsolationForestModel current = model.get();
+        if (current == null) {
+            throw new IllegalStateException("No forest has been built yet.");
+        }
+        return current.score(x);
+    }
+
+    //adds x to the window, starting a background rebuild when one is due
+    public void add(double[] x) {
+        if (x.length != dimensions) {
+            throw new IllegalArgumentException("Forest expects " + dimensions
+                    + " dimensions but the point has " + x.length + ".");
+        }
+        RuntimeException failure = rebuildFailure;
+        if (failure != null) {
+            rebuildFailure = null;
+            throw failure;
+        }
+        boolean rebuildDue;
+        synchronized (window) {
+            int slot;
+            if (windowCount < windowSize) {
+                slot = windowCount++;
+            } else if (windowPolicy == WindowPolicy.SLIDING) {
+                slot = nextSlot;
+                nextSlot = (nextSlot + 1) % windowSize;
+            } else {
+                //keep the new point with probability windowSize / seen
+                long j = reservoirRandom.nextLong(seenCount + 1);
+                slot = j < windowSize ? (int) j : -1;
+            }
+            if (slot >= 0) {
+                System.arraycopy(x, 0, window, slot * dimensions, dimensions);
+            }
+            seenCount++;
+            addedSinceRebuild++;
+            if (model.get() == null) {
+                rebuildDue = windowCount >= sampleSize;
+            } else {
+                rebuildDue = addedSinceRebuild >= rebuildInterval;
+            }
+        }
+        if (rebuildDue && rebuilding.compareAndSet(false, true)) {
+            synchronized (window) {
+                addedSinceRebuild = 0;
+            }
+            rebuilder.execute(this::rebuild);
+        }
+    }
+
+    //the forest scores are currently computed with, or null before the first build
+    public IsolationForestModel getModel() {
+        return model.get();
+    }
+
+    public long getSeenCount() {
+        synchronized (window) {
+            return seenCount;
+        }
+    }
+
+    public boolean isRebuilding() {
+        return rebuilding.get();
+    }
+
+    //stops the rebuild thread. the current forest can still be used for scoring
+    @Override
+    public void close() {
+        rebuilder.shutdown();
+    }
+
+    //builds the first forest, or replaces the oldest trees of the current one
+    private void rebuild() {
+        try {
+            IsolationForestModel current = model.get();
+            int replaced;
+            long seed;
+            synchronized (window) {
+                replaced = current == null ? treeCount : treesPerRebuild;
+                seed = this.seed;
+            }
+            double[][][] samples = sampleWindow(replaced, seed);
+
+            IsolationTree[] trees = new IsolationTree[treeCount];
+            int kept = treeCount - replaced;
+            if (kept > 0) {
+                //trees are kept oldest first, so the oldest are the ones dropped
+                System.arraycopy(current.getTrees(), replaced, trees, 0, kept);
+            }
+            int[] subset = new int[sampleSize];
+            for (int i = 0; i < sampleSize; i++) {
+                subset[i] = i;
+            }
+            for (int i = 0; i < replaced; i++) {
+                Sampler random = new Sampler(ExtendedIsolationForest.treeSeed(seed, treesBuilt++));
+                trees[kept + i] = new IsolationTree(new ArrayDataset(samples[i]), subset, heightLimit,
+                        splitOnProximity, extensionLevel, random);
+            }
+            model.set(new IsolationForestModel(trees, sampleSize, heightLimit, dimensions,
+                    extensionLevel, splitOnProximity, seed));
+        } catch (RuntimeException e) {
+            rebuildFailure = e;
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    //copies sampleSize distinct points of the window for each of count trees
+    private double[][][] sampleWindow(int count, long seed) {
+        double[][][] samples = new double[count][sampleSize][dimensions];
+        //tree seeds use the non negative tree numbers, sampling the negative ones
+        Sampler random = new Sampler(ExtendedIsolationForest.treeSeed(seed, ~treesBuilt));
+        synchronized (window) {
+            //the window only grows until it is full, then the slots stay the same
+            if (sampleBuffer.length != windowCount) {
+                sampleBuffer = new int[windowCount];
+                for (int i = 0; i < windowCount; i++) {
+                    sampleBuffer[i] = i;
+                }
+            }
+            for (int t = 0; t < count; t++) {
+                //any permutation of the slots is a fine starting point, so the buffer is
+                //not reset between samples
+                random.shuffle(sampleBuffer, sampleSize);
+                for (int i = 0; i < sampleSize; i++) {
+                    System.arraycopy(window, sampleBuffer[i] * dimensions, samples[t][i], 0, dimensions);
+                }
+            }
+        }
+        return samples;
+    }
+}
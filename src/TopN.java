@@ -0,0 +1,89 @@
+/**
+ * Selects the n highest scores out of a larger array with a bounded min-heap kept in
+ * primitive arrays. Costs O(N log n) time and O(n) memory instead of sorting everything.
+ */
+public class TopN {
+
+    /**
+     * Returns the indices of the n highest scores and the scores themselves, both ordered
+     * from highest to lowest score. Equal scores are ordered by index. If n is larger than
+     * the number of scores, every index is returned.
+     */
+    public static Pair<int[], double[]> select(double[] scores, int n) {
+        n = Math.min(n, scores.length);
+        int[] heapIndices = new int[n];
+        double[] heapScores = new double[n];
+        if (n == 0) {
+            return new Pair<int[], double[]>(heapIndices, heapScores);
+        }
+
+        //the root is the weakest of the current top n
+        int size = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (size < n) {
+                heapIndices[size] = i;
+                heapScores[size] = scores[i];
+                siftUp(heapIndices, heapScores, size);
+                size++;
+            } else if (isWeaker(heapScores[0], heapIndices[0], scores[i], i)) {
+                heapIndices[0] = i;
+                heapScores[0] = scores[i];
+                siftDown(heapIndices, heapScores, 0, size);
+            }
+        }
+
+        //repeatedly move the weakest to the back, leaving the arrays sorted strongest first
+        for (int end = size - 1; end > 0; end--) {
+            swap(heapIndices, heapScores, 0, end);
+            siftDown(heapIndices, heapScores, 0, end);
+        }
+        return new Pair<int[], double[]>(heapIndices, heapScores);
+    }
+
+    //true if (scoreA, indexA) ranks below (scoreB, indexB)
+    private static boolean isWeaker(double scoreA, int indexA, double scoreB, int indexB) {
+        if (scoreA != scoreB) {
+            return scoreA < scoreB;
+        }
+        return indexA > indexB;
+    }
+
+    private static void siftUp(int[] indices, double[] scores, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (!isWeaker(scores[i], indices[i], scores[parent], indices[parent])) {
+                return;
+            }
+            swap(indices, scores, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] indices, double[] scores, int i, int size) {
+        while (true) {
+            int weakest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && isWeaker(scores[left], indices[left], scores[weakest], indices[weakest])) {
+                weakest = left;
+            }
+            if (right < size && isWeaker(scores[right], indices[right], scores[weakest], indices[weakest])) {
+                weakest = right;
+            }
+            if (weakest == i) {
+                return;
+            }
+            swap(indices, scores, i, weakest);
+            i = weakest;
+        }
+    }
+
+    private static void swap(int[] indices, double[] scores, int a, int b) {
+        int index = indices[a];
+        indices[a] = indices[b];
+        indices[b] = index;
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
@@ -1,171 +1,71 @@
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Scanner;
 
 public class Utility {
     
     private static Pair<double[][], int[]> data;
-    private static int dataOutlierCount, dataLength;
     private static ExtendedIsolationForest eif;
     
+    //file layouts of the bundled datasets
+    //satellite: 36 pixel values 0-255 and a class, space separated. classes 2, 4 and 5 are outliers
+    public static final DataLoader.Schema SATELLITE = new DataLoader.Schema()
+            .whitespace().featureRange(0, 36).divideBy(255.0)
+            .labelColumn(36).outlierLabels("2", "4", "5");
+    //mammography: header line, 6 features and a class of -1 or 1
+    public static final DataLoader.Schema MAMMOGRAPHY = new DataLoader.Schema()
+            .skipLines(1).delimiter(',').featureRange(0, 6)
+            .labelColumn(6).outlierLabels("1");
+    //ionosphere: 34 features and a class of g(ood) or b(ad)
+    public static final DataLoader.Schema IONOSPHERE = new DataLoader.Schema()
+            .delimiter(',').featureRange(0, 34)
+            .labelColumn(34).outlierLabels("b");
+    //forest cover: 54 features of which the first 10 are quantitative, then the cover type.
+    //only types 2 (normal) and 4 (outlier) are used
+    public static final DataLoader.Schema FOREST_COVER = new DataLoader.Schema()
+            .delimiter(',').featureRange(0, 10)
+            .labelColumn(54).keepLabels("2", "4").outlierLabels("4");
+    //cardio: header row and empty row, 6 columns of file info, the measurements, then
+    //NSP in column 39. only classes 1 (normal) and 3 (pathologic) are used.
+    //the measurements run LB through Tendency (columns 6-27), but Tendency was never copied
+    //into the dataset by the original loader, so it is left out to keep results comparable
+    public static final DataLoader.Schema CARDIO = new DataLoader.Schema()
+            .skipLines(2).delimiter(',').featureRange(6, 27)
+            .labelColumn(39).keepLabels("1", "3").outlierLabels("3");
+    
     public static Pair<double[][], int[]> loadSatellite(String path) {
-        double[][] satellite = new double[6435][36];
-        int[] labels = new int[6435];
-        try {
-            Scanner scan = new Scanner(new File(path));
-            int line = 0;
-            while (scan.hasNextInt()) {
-                for (int i = 0; i < 36; i++) {
-                    satellite[line][i] = (scan.nextInt() / 255.0);
-                }
-                int rawLabel = scan.nextInt();
-                if (rawLabel == 2 || rawLabel == 4 || rawLabel == 5) {
-                    labels[line] = 1;
-                } else {
-                    labels[line] = 0;
-                }
-                line++;
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        
-        return new Pair<double[][], int[]>(satellite, labels);
+        return load(path, SATELLITE);
     }
     
     public static Pair<double[][], int[]> loadMammography(String path) {
-        double[][] mammography = new double[11183][6];
-        int[] labels = new int[11183];
-        try {
-            Scanner scan = new Scanner(new File(path));
-            scan.nextLine(); //mammography has a header line
-            scan.useDelimiter("[,\\n]");//comma delimited
-            int line = 0;
-            while (scan.hasNextLine()) {
-                for (int i = 0; i < 6; i++) {
-                    mammography[line][i] = scan.nextDouble();
-                }
-                //if (line % 100 == 0) System.out.println(Arrays.toString(mammography[line]));
-                int rawLabel = scan.nextInt();
-                if (rawLabel == 1) {
-                    labels[line] = 1;
-                } else {
-                    labels[line] = 0;
-                }
-                line++;
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        
-        return new Pair<double[][], int[]>(mammography, labels);
+        return load(path, MAMMOGRAPHY);
     }
     
     public static Pair<double[][], int[]> loadIonosphere(String path) {
-        double[][] ionosphere = new double[351][34];
-        int[] labels = new int[351];
-        try {
-            Scanner scan = new Scanner(new File(path));
-            scan.useDelimiter("[,\\n]");//comma delimited
-            int line = 0;
-            while (scan.hasNextInt()) {
-                for (int i = 0; i < 34; i++) {
-                    ionosphere[line][i] = scan.nextDouble();
-                }
-                String rawLabel = scan.next();
-                if (rawLabel.equals("b")) {
-                    labels[line] = 1;
-                } else {
-                    labels[line] = 0;
-                }
-                line++;
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        
-        return new Pair<double[][], int[]>(ionosphere, labels);
+        return load(path, IONOSPHERE);
     }
     
     public static Pair<double[][], int[]> loadForestCover(String path) {
-        double[][] forestCover = new double[286048][10]; //ran through dataset and counted
-        int[] labels = new int[286048];
-        try {
-            Scanner scan = new Scanner(new File(path));
-            scan.useDelimiter("[,\\n]");//comma delimited
-            int line = 0;
-            while (scan.hasNextInt()) {
-                double[] currentLine = new double[10];
-                
-                for (int i = 0; i < 54; i++) {
-                    double currentVar = scan.nextInt();
-                    if (i < 10) {
-                        currentLine[i] = currentVar;
-                    }
-                }
-                //if (line == 20) System.out.println(Arrays.toString(currentLine));
-                int label = scan.nextInt();
-                if (label == 4 || label == 2) {
-                    if (label == 4) {
-                        labels[line] = 1;
-                    }
-                    for (int i = 0; i < 10; i++) {
-                        forestCover[line][i] = currentLine[i];
-                    }
-                    line++;
-                }
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        return new Pair<double[][], int[]>(forestCover, labels);
+        return load(path, FOREST_COVER);
     }
     
     public static Pair<double[][], int[]> loadCardio(String path) {
-        double[][] cardio = new double[1831][22]; //ran through dataset and counted
-        int[] labels = new int[1831];
+        return load(path, CARDIO);
+    }
+    
+    private static Pair<double[][], int[]> load(String path, DataLoader.Schema schema) {
         try {
-            Scanner scan = new Scanner(new File(path));
-            scan.useDelimiter("[,\\n]"); //comma delimited
-            scan.nextLine();
-            scan.nextLine(); //header row and empty row
-            int line = 0;
-            while (scan.hasNext()) {
-                double[] currentLine = new double[22];
-                for(int i = 0; i < 6; i++) { //trash at beginning
-                    scan.next();
-                }
-                for (int i = 0; i < 22; i++) {
-                    double currentVar = scan.nextDouble();
-                    currentLine[i] = currentVar;
-                }
-                for(int i = 0; i < 11; i++) { //trash at end except final entry
-                    scan.next();
-                }
-                int label = scan.nextInt();
-                scan.nextLine();
-                if (label == 1 || label == 3) {
-                    if (label == 3) {
-                        labels[line] = 1;
-                    }
-                    for (int i = 0; i < 21; i++) {
-                        cardio[line][i] = currentLine[i];
-                    }
-                    line++;
-                }
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+            return DataLoader.load(path, schema);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not load " + path + ".", e);
         }
-        return new Pair<double[][], int[]>(cardio, labels);
     }
     
     /*
@@ -207,103 +107,64 @@ public class Utility {
         throw new RuntimeException("Bad filename passed to getDataset.");
     }
     
-    //because im lazy and a bad programmer
-    private static Pair<Integer, Integer> runEIF(String filename, double threshold,
-            int numberOfOutliers, boolean proximity) {
-        //if (data == null) data = loadSatellite(filename);
-        if (data == null) data = getDataset(filename);
-        double[][] dataset = data.l;
-        int[] labels = data.r;
-        int truePositives = 0;
-        int allOutliers = 0;
-        for (int i = 0; i < dataset.length; i++) {
-            if (labels[i] == 1) {
-                allOutliers++;
-            }
-        }
-        dataLength = data.l.length;
-        dataOutlierCount = allOutliers;
-        
-        if (eif == null) eif = new ExtendedIsolationForest(dataset, 100, 256, proximity);
-        List<Integer> iforestOutliers;
-        if (numberOfOutliers > 0) {
-            iforestOutliers = eif.getOutliers(numberOfOutliers);
-        } else {
-            iforestOutliers = eif.getOutliers(threshold);
-        }
-        for (int i = 0; i < iforestOutliers.size(); i++) {
-            if (labels[iforestOutliers.get(i)] == 1) {
-                truePositives++;
-            }
-        }
-        //System.out.println("EIF: " + iforestOutliers.size() + " points declared outliers.");
-        //System.out.println("Found " + truePositives + " out of " + allOutliers + " outliers.");
-        //returns true positives and all positives
-        return new Pair<Integer, Integer>(truePositives, iforestOutliers.size());
-    }
-    
     public static double eifAUC(String filename, boolean proximity, boolean write) {
-        int numberOfRuns = 100;
-        double area = 0;
-        
-        //run eif with varrying threshold
-        List<Pair<Double, Double>> rates = new LinkedList<>();
-        for (int i = 0; i < numberOfRuns; i++) {
-            Pair<Integer, Integer> data = runEIF(filename, i*(1.0 / numberOfRuns), -1, proximity);
-            
-            rates.add(new Pair<Double, Double>((data.l / (double)dataOutlierCount),
-                    (data.r - data.l) / (dataLength - (double)dataOutlierCount)));
-        }
-        
-        //sort by false positive rate
-        for (int i = 0; i < numberOfRuns; i++) {
-            int min = i;
-            for (int j = i; j < numberOfRuns; j++) {
-                if (rates.get(j).r < rates.get(min).r) {
-                    min = j;
-                }
-            }
-            rates.add(i, rates.remove(min));
-        }
+        if (data == null) data = getDataset(filename);
+        if (eif == null) eif = new ExtendedIsolationForest(data.l, 100, 256, proximity);
         
-        //area is positiveRate[i] * (negativeRate[i+1] - negativeRate[i])
-        for(int i = 0; i < numberOfRuns - 1; i++) {
-            //Trapezoidal Riemann sum
-            area += rates.get(i).l * (rates.get(i + 1).r - rates.get(i).r);
-            area += .5 * (rates.get(i+1).l - rates.get(i).l) * (rates.get(i + 1).r - rates.get(i).r);
-            //System.out.println(rates.get(i).l + "," + rates.get(i).r);
-        }
-        area += rates.get(numberOfRuns - 1).l * (1 - rates.get(numberOfRuns - 1).r);
-        area += .5 * (1 - rates.get(numberOfRuns - 1).l) * (1 - rates.get(numberOfRuns - 1).r);
+        //every distinct score is a threshold, so the curve and its area are exact
+        RocCurve roc = new RocCurve(eif.getAnomalyScores(), data.r);
+        double area = roc.getAUC();
         
         if (write) {
+            List<Pair<Double, Double>> rates = new ArrayList<>(roc.size());
+            for (int i = 0; i < roc.size(); i++) {
+                rates.add(new Pair<Double, Double>(roc.getTruePositiveRates()[i],
+                        roc.getFalsePositiveRates()[i]));
+            }
             String name = filename + "-auc-" + area;
             writeAUC(name, rates);
         }
         return area;
     }
     
+    //appends the rates to the file, writing the header first if the file is new
     public static void writeAUC(String filename, List<Pair<Double, Double>> data) {
-        try {
-            File file = new File(filename);
-            if (!file.exists()) {
-                file.createNewFile();
-                String header = "truePositiveRate,falsePositiveRate\n";
-                Files.write(Paths.get(filename), header.getBytes(), StandardOpenOption.APPEND);
+        boolean exists = new File(filename).exists();
+        try (BufferedWriter out = Files.newBufferedWriter(Paths.get(filename),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            if (!exists) {
+                out.write("truePositiveRate,falsePositiveRate\n");
             }
-            
             DecimalFormat df = new DecimalFormat("#.#####");
-            String output = "";
             for (Pair<Double, Double> p : data) {
-                output += df.format(p.l) + "," + df.format(p.r) + "\n";
+                out.write(df.format(p.l));
+                out.write(',');
+                out.write(df.format(p.r));
+                out.write('\n');
             }
-            Files.write(Paths.get(filename), output.getBytes(), StandardOpenOption.APPEND);
         } catch (IOException e) {
             System.out.println("Error writing to file.");
         }
     }
     
+    /**
+     * Writes the scores of the last forest (see eifAUC) to path, with labels and ranks,
+     * and its ROC and precision-recall curve to path + "-curve", both in the given format.
+     */
+    public static void exportResults(String path, ResultsExporter.Format format) throws IOException {
+        double[] scores = eif.getAnomalyScores();
+        try (ResultsExporter exporter = ResultsExporter.open(path, format)) {
+            exporter.writeScores(scores, data.r);
+        }
+        try (ResultsExporter exporter = ResultsExporter.open(path + "-curve", format)) {
+            exporter.writeCurve(new RocCurve(scores, data.r));
+        }
+    }
+    
     public static void reset() {
+        if (eif != null) {
+            eif.close();
+        }
         eif = null;
         data = null;
     }
@@ -324,28 +185,33 @@ public class Utility {
      */
     public static void main(String[] args) {
         /*
-        double total = 0, min = 1, max = 0;
-        for (int i = 0; i < 100; i++) {
-            double current = eifAUC("mammography.data", false, i==50?true:false);
-            total += current;
-            if (current < min) min = current;
-            if (current > max) max = current;
-            //force remake of eif each run
-            eif = null;
+        HyperparameterSweep sweep = new HyperparameterSweep();
+        sweep.addDataset("mammography", loadMammography("mammography.csv"));
+        sweep.setSplitModes(false);
+        sweep.setRepetitions(100);
+        for (HyperparameterSweep.Result result : sweep.run()) {
+            System.out.println("AUC stats from 100 runs of EIF:\n\t" + result);
         }
-        System.out.println("AUC stats from 100 runs of EIF:\n\t Min: " + min + " Max: " + max
-                + " Average: " + total/100);
         */
-        System.out.println("EIF Cardio AUC: " + eifAUC("cardio.csv", true, false));
+        printAUC("Cardio", "cardio.csv");
         //for performance and evaluation consistency when doing a great number of runs,
         //the class will use the last EIF instance and dataset unless cleared.
         reset(); 
-        System.out.println("EIF ForestCover AUC: " + eifAUC("covtype.data", true, false));
+        printAUC("ForestCover", "covtype.data");
         reset(); 
-        System.out.println("EIF Ionosphere AUC: " + eifAUC("ionosphere.data", true, false));
+        printAUC("Ionosphere", "ionosphere.data");
         reset(); 
-        System.out.println("EIF Mammography AUC: " + eifAUC("mammography.csv", true, false));
+        printAUC("Mammography", "mammography.csv");
         reset(); 
-        System.out.println("EIF Satellite AUC: " + eifAUC("sat.all", true, false));
+        printAUC("Satellite", "sat.all");
+    }
+    
+    //covtype.data is too big to bundle, so datasets that are not there are skipped
+    private static void printAUC(String name, String filename) {
+        if (!new File(filename).exists()) {
+            System.out.println("EIF " + name + " AUC: skipped, " + filename + " not found.");
+            return;
+        }
+        System.out.println("EIF " + name + " AUC: " + eifAUC(filename, true, false));
     }
 }
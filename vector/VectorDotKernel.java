@@ -0,0 +1,44 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * DotKernel on the JDK vector API. Dense dot products keep the eight partial sums in two
+ * vectors of four lanes, and combine them in the order DotKernel defines, so the results
+ * are the same bits as DotKernel.SCALAR. Multiplies and adds stay separate, since fusing
+ * them would round differently. Dot products over a subset of the columns would need
+ * gathers, which are no faster here, so they are left to the scalar kernel.
+ *
+ * Kept out of src so the project builds without the incubator module. Compile it into
+ * the same output directory with --add-modules jdk.incubator.vector, and DotKernel
+ * picks it up when the JVM runs with the same flag.
+ */
+public class VectorDotKernel implements DotKernel {
+    //four lanes, half of DotKernel.LANES
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+
+    public VectorDotKernel() {
+        if (DoubleVector.SPECIES_PREFERRED.vectorBitSize() < SPECIES.vectorBitSize()) {
+            throw new UnsupportedOperationException("No 256 bit vector registers.");
+        }
+    }
+
+    @Override
+    public double dot(double[] x, double[] coefficients, int[] columns, int offset, int count) {
+        if (columns != null) {
+            return DotKernel.SCALAR.dot(x, coefficients, columns, offset, count);
+        }
+        DoubleVector low = DoubleVector.zero(SPECIES);
+        DoubleVector high = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i <= count - LANES; i += LANES) {
+            low = low.add(DoubleVector.fromArray(SPECIES, x, i)
+                    .mul(DoubleVector.fromArray(SPECIES, coefficients, offset + i)));
+            high = high.add(DoubleVector.fromArray(SPECIES, x, i + 4)
+                    .mul(DoubleVector.fromArray(SPECIES, coefficients, offset + i + 4)));
+        }
+        //lane k now holds p[k] + p[k + 4]. reduceLanes leaves the order open, so add by hand
+        DoubleVector sums = low.add(high);
+        double result = (sums.lane(0) + sums.lane(1)) + (sums.lane(2) + sums.lane(3));
+        return DotKernel.addRemaining(result, x, coefficients, null, offset, i, count);
+    }
+}